@@ -0,0 +1,201 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ */
+
+package decaf;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.*;
+import org.openjdk.jmh.annotations.*;
+// Named explicitly as decaf.Scope would otherwise hide it.
+import org.openjdk.jmh.annotations.Scope;
+import java6G6Z1010.tools.CLI.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each phase of the compiler on its own. Everything a phase needs as input is produced once
+ * per trial, so that each benchmark only times its own phase:
+ *   scan   - DecafLexer over the source, until EOF.
+ *   parse  - DecafParser, through the TwoStageParseStrategy, over tokens lexed in advance.
+ *   check  - SemanticRuleManager over a tree parsed in advance.
+ *   buildIR - LowLevelIRBuilder over a tree parsed and checked in advance.
+ *   emit   - buildIR, with each method printed by the AssemblyPrinter and let go of once built.
+ *   allocate - buildIR, with registers allocated for each method once built, by the allocator named
+ *            by the regalloc parameter, so that colour and linear are timed on the same inputs.
+ *            The number of registers spilled is returned, so that it can be compared alongside.
+ * Inputs are the codegen test programs and larger synthetic programs: "huge-xN" is made of N copies
+ * of the gurp method from 12-huge.dcf, and "gen-mN" is N methods written by the WorkloadGenerator,
+ * so that the sizes double between each input and any phase whose cost grows faster than its input
+ * stands out. Run through bench.xml, which adds the GC profiler so the allocation rate of each phase
+ * is reported next to its throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerPhaseBenchmark {
+  @Param({
+    "testdata/codegen/01-callout.dcf", "testdata/codegen/02-expr.dcf",
+    "testdata/codegen/03-math.dcf", "testdata/codegen/04-math2.dcf",
+    "testdata/codegen/05-calls.dcf", "testdata/codegen/06-control-flow.dcf",
+    "testdata/codegen/07-recursion.dcf", "testdata/codegen/08-array.dcf",
+    "testdata/codegen/09-global.dcf", "testdata/codegen/11-big-array.dcf",
+    "testdata/codegen/12-huge.dcf", "testdata/codegen/13-ifs.dcf",
+    "testdata/codegen/14-shortcircuit.dcf", "testdata/codegen/15-not.dcf",
+    "testdata/codegen/16-qsort.dcf", "huge-x10", "huge-x100",
+    "gen-m10", "gen-m20", "gen-m40", "gen-m80"
+  })
+  public String input;
+
+  private static final String HUGE = "testdata/codegen/12-huge.dcf";
+  private static final int GENERATED_STATEMENTS = 40;
+  private static final int GENERATED_DEPTH = 5;
+  private static final int GENERATED_NESTING = 3;
+  private static final int GENERATED_ARRAYS = 2;
+  private static final int GENERATED_CALLOUTS = 2;
+
+  private final CLI cli = new CLI();
+  private final PrintStream discard = new PrintStream(new OutputStream() {
+    @Override public void write(int b) { }
+    @Override public void write(byte[] b, int off, int len) { }
+  });
+
+  private byte[] source;
+  private List<Token> tokens;
+  private ParseTree tree;
+  private ParseTreeProperty<String> exprValues;
+
+  @Setup(Level.Trial)
+  public void prepare() throws IOException {
+    source = load(input);
+
+    tokens = new ArrayList<>();
+    DecafLexer lexer = lexer();
+    for (Token token = lexer.nextToken(); ; token = lexer.nextToken()) {
+      tokens.add(token);
+      if (token.getType() == Token.EOF) break;
+    }
+
+    tree = parse();
+    exprValues = check();
+  }
+
+  @Benchmark
+  public int scan() {
+    DecafLexer lexer = lexer();
+    int count = 0;
+    for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken())
+      count++;
+    return count;
+  }
+
+  @Benchmark
+  public ParseTree parse() {
+    DecafParser parser = new DecafParser(new CommonTokenStream(new ListTokenSource(tokens)));
+    parser.removeErrorListeners();
+    return new TwoStageParseStrategy().parse(parser);
+  }
+
+  @Benchmark
+  public ParseTreeProperty<String> check() {
+    ErrorHandler errorHandler = new ErrorHandler(cli, SourceFile.wrap(source, input), discard);
+    SemanticRuleManager manager = new SemanticRuleManager(errorHandler, cli, discard);
+    ParseTreeWalker.DEFAULT.walk(manager, tree);
+    return manager.exprValues;
+  }
+
+  @Benchmark
+  public Object buildIR() {
+    LowLevelIRBuilder builder = new LowLevelIRBuilder(exprValues);
+    ParseTreeWalker.DEFAULT.walk(builder, tree);
+    return builder.programInstructionSet;
+  }
+
+  @Benchmark
+  public int emit() {
+    StringBuilder text = new StringBuilder();
+    InstructionSet[] program = new InstructionSet[1];
+    LowLevelIRBuilder builder = new LowLevelIRBuilder(exprValues, method -> {
+      print(program[0], text);
+      text.setLength(0);
+    });
+    program[0] = builder.programInstructionSet;
+    ParseTreeWalker.DEFAULT.walk(builder, tree);
+    print(program[0], text);
+    return text.length();
+  }
+
+  /**
+   * The register allocator the allocate benchmark uses. Kept apart from the inputs, so the other
+   * phases, which don't allocate registers, aren't run once per allocator too.
+   */
+  @State(Scope.Thread)
+  public static class Allocator {
+    @Param({ "colour", "linear" })
+    public String regalloc;
+  }
+
+  @Benchmark
+  public long allocate(Allocator allocator) {
+    long[] spilled = new long[1];
+    InstructionSet[] program = new InstructionSet[1];
+    LowLevelIRBuilder builder = new LowLevelIRBuilder(exprValues, method -> {
+      ControlFlowGraph graph = new ControlFlowGraph(method);
+      RegisterAllocator registers = allocator.regalloc.equals("linear")
+                                    ? new LinearScanAllocator(method, graph)
+                                    : new GraphColouringAllocator(method, graph);
+      registers.allocate();
+      spilled[0] += registers.spilled;
+      program[0].restart();
+    });
+    program[0] = builder.programInstructionSet;
+    ParseTreeWalker.DEFAULT.walk(builder, tree);
+    return spilled[0];
+  }
+
+  private static void print(InstructionSet program, StringBuilder text) {
+    try {
+      AssemblyPrinter.print(program.first(), null, text);
+    } catch (IOException e) { throw new UncheckedIOException(e); }
+    program.restart();
+  }
+
+  private DecafLexer lexer() {
+    DecafLexer lexer = new DecafLexer(SourceFile.wrap(source, input).charStream());
+    lexer.removeErrorListeners();
+    return lexer;
+  }
+
+  /**
+   * @return The bytes of a test program, or of one of the synthetic programs.
+   */
+  private static byte[] load(String input) throws IOException {
+    if (input.startsWith("gen-m")) {
+      int methods = Integer.parseInt(input.substring("gen-m".length()));
+      return new WorkloadGenerator(methods, GENERATED_STATEMENTS, GENERATED_DEPTH, GENERATED_NESTING,
+                                   GENERATED_ARRAYS, GENERATED_CALLOUTS, 1).generate()
+                                   .getBytes(StandardCharsets.US_ASCII);
+    }
+    if (!input.startsWith("huge-x")) return Files.readAllBytes(Paths.get(input));
+
+    int copies = Integer.parseInt(input.substring("huge-x".length()));
+    String huge = new String(Files.readAllBytes(Paths.get(HUGE)), StandardCharsets.US_ASCII);
+    String gurp = huge.substring(huge.indexOf("  int gurp("), huge.indexOf("  void main()"));
+    String main = huge.substring(huge.indexOf("  void main()"), huge.lastIndexOf('}'));
+
+    StringBuilder program = new StringBuilder("class Program\n{\n");
+    program.append(gurp);
+    for (int i = 1; i < copies; i++) program.append(gurp.replace("int gurp(", "int gurp" + i + "("));
+    program.append(main).append("}\n");
+    return program.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+}
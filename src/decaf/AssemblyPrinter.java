@@ -0,0 +1,73 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from 
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ */
+
+package decaf;
+
+import java.io.*;
+
+/**
+ * Turns the IR into the text of the assembly. This is the only place instructions become text, so
+ * the IR itself holds no strings beyond the names of labels.
+ */
+class AssemblyPrinter {
+  /**
+   * Prints the blocks from the first up to, but not including, the last.
+   * @param first The first block to print.
+   * @param last  The block to stop at, or null to print to the end of the program.
+   * @param out   Where to print the text.
+   */
+  static void print(BasicBlock first, BasicBlock last, Appendable out) throws IOException {
+    for (BasicBlock block = first; block != last; block = block.next) {
+      if (block.label != null) out.append(block.label.name).append(":  \n");
+      for (Instruction instruction : block.instructions) out.append(format(instruction)).append('\n');
+    }
+  }
+
+  /**
+   * @return The instruction as one line of AT&T assembly, without the line terminator.
+   */
+  static String format(Instruction instruction) {
+    Opcode opcode = instruction.opcode;
+    if (opcode == Opcode.SPACE)
+      return instruction.source + ": " + opcode.mnemonic + " "
+        + ((Operand.Immediate) instruction.destination).value + " ";
+    if (opcode == Opcode.STRING)
+      return instruction.source + ": " + opcode.mnemonic + " " + instruction.destination;
+    // The address of data is taken relative to the instruction pointer, so the code can be loaded
+    // anywhere, as a position independent executable is.
+    if (opcode == Opcode.LEA && instruction.source instanceof Operand.Label)
+      return opcode.mnemonic + " " + instruction.source + "(%rip), " + instruction.destination;
+
+    String mnemonic = opcode.mnemonic + (needsSize(instruction) ? "q" : "");
+    switch (opcode.operands) {
+      case 0:   return mnemonic + "  ";
+      case 1:   return mnemonic + " " + instruction.source + " ";
+      default:  return mnemonic + " " + instruction.source + ", " + instruction.destination;
+    }
+  }
+
+  /**
+   * The assembler takes the size of an instruction from its register operands. One with none, only
+   * memory and perhaps a constant, such as `mov $1, global_a(%rip)`, is given the q suffix, as every
+   * value is moved and worked on 64 bits at a time. A SETcc always writes a byte, so needs none.
+   */
+  private static boolean needsSize(Instruction instruction) {
+    Operand source = instruction.source, destination = instruction.destination;
+    return !instruction.opcode.isConditionalSet()
+      && (source instanceof Operand.Memory || destination instanceof Operand.Memory)
+      && sizeless(source) && sizeless(destination);
+  }
+
+  private static boolean sizeless(Operand operand) {
+    return operand == null || operand instanceof Operand.Memory || operand instanceof Operand.Immediate;
+  }
+}
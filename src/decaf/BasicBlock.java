@@ -0,0 +1,44 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from 
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * A straight run of instructions that is only entered at the top, through its label, and only
+ * left at the bottom. Blocks are linked in the order they are laid out in, and each knows where
+ * control can go when it leaves: the blocks it jumps to, and the next block if control can fall
+ * through to it.
+ */
+class BasicBlock {
+  BasicBlock(Operand.Label label) { this.label = label; }
+
+  Operand.Label label;
+  final List<Instruction> instructions = new ArrayList<>();
+  final List<BasicBlock> jumpTargets = new ArrayList<>();
+  BasicBlock fallThrough;
+  BasicBlock next;
+  // Set once the block ends in an unconditional jump or a return.
+  boolean terminated;
+  // The position of the block in its method's ControlFlowGraph, once one has been built.
+  int index;
+
+  /**
+   * @return The blocks control can pass to from this one.
+   */
+  List<BasicBlock> successors() {
+    List<BasicBlock> successors = new ArrayList<>(jumpTargets);
+    if (fallThrough != null) successors.add(fallThrough);
+    return successors;
+  }
+}
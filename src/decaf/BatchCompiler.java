@@ -0,0 +1,144 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ */
+
+package decaf;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/**
+ * Compiles many Decaf files in one JVM, spread over all the available cores. Each file is compiled
+ * by its own Main object, exactly as if `java decaf.Main -target <target> <file>` had been run, so
+ * the .scan/.parse/.s output, and the .profile.json with -profile, is written next to the source.
+ * -o isn't accepted: every compilation would append to the one file, several at once. What each
+ * compilation prints is held back and printed as one piece, in the order the files were given, so
+ * the output of different files is never interleaved.
+ *
+ * Usage: java decaf.BatchCompiler [-target T] [-opt O] [-regalloc=R] [-debug] [-profile]
+ *                                  [-j threads] (directory | file)...
+ * Directories are searched recursively for .dcf files.
+ */
+public class BatchCompiler {
+  private static final String USAGE = "java decaf.BatchCompiler [-target T] [-opt O]"
+    + " [-regalloc=R] [-debug] [-profile] [-j threads] (directory | file)...";
+
+  // The options of Main that are passed on to every compilation: those followed by a value, which
+  // goes with them, and those on their own. Anything else starting with - is most likely a typo, which
+  // Main would silently ignore, so it is rejected instead.
+  private static final List<String> OPTIONS_WITH_VALUES = Arrays.asList("-target", "-opt");
+  private static final List<String> FLAGS = Arrays.asList("-debug", "-profile");
+
+  public static void main(String[] args) {
+    List<String> passThrough = new ArrayList<>();
+    List<Path> sources = new ArrayList<>();
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    try {
+      for (int i = 0; i < args.length; i++) {
+        if      (args[i].equals("-j") && i + 1 < args.length) {
+          threads = threads(args[++i]);
+          if (threads < 1) {
+            System.out.println("[decaf] -j takes a number of threads, at least 1, not " + args[i]
+                               + ". Usage: " + USAGE);
+            return;
+          }
+        }
+        else if (OPTIONS_WITH_VALUES.contains(args[i]) && i + 1 < args.length) {
+          passThrough.add(args[i]);
+          passThrough.add(args[++i]);
+        }
+        else if (FLAGS.contains(args[i]) || args[i].startsWith("-regalloc="))
+          passThrough.add(args[i]);
+        else if (args[i].equals("-o")) {
+          System.out.println("[decaf] -o can't be used here, as each file's output is written next"
+                             + " to it. Usage: " + USAGE);
+          return;
+        }
+        else if (args[i].startsWith("-")) {
+          System.out.println("[decaf] unknown option " + args[i] + ". Usage: " + USAGE);
+          return;
+        }
+        else
+          sources.addAll(findSources(Paths.get(args[i])));
+      }
+    } catch(IOException e) {
+      System.out.println("I/O Error: " + e);
+      return;
+    }
+
+    new BatchCompiler(threads).compileAll(sources, passThrough);
+  }
+
+  // The number of threads -j asks for, or 0 if it isn't a number.
+  private static int threads(String value) {
+    try                               { return Integer.parseInt(value); }
+    catch (NumberFormatException nfe) { return 0; }
+  }
+
+  public BatchCompiler(int threads) { this.threads = threads; }
+
+  private final int threads;
+
+  /**
+   * Compiles every source file with the same options and waits for all of them to finish.
+   * @param sources The files to compile.
+   * @param options The compiler arguments to use for every file, apart from the file name.
+   */
+  public void compileAll(List<Path> sources, List<String> options) {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+
+    List<Future<String>> results = new ArrayList<>();
+    for (Path source : sources) results.add(pool.submit(() -> compile(source, options)));
+
+    for (int i = 0; i < results.size(); i++) {
+      try {
+        System.out.print(results.get(i).get());
+      } catch(InterruptedException | ExecutionException e) {
+        System.out.println("[decaf] " + sources.get(i) + ": " + e);
+      }
+    }
+    pool.shutdown();
+
+    System.out.println("[decaf] compiled " + sources.size() + " files in "
+      + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms on " + threads
+      + " threads.");
+  }
+
+  /**
+   * @return Everything the compilation of this file printed, to stdout or stderr.
+   */
+  private static String compile(Path source, List<String> options) throws IOException {
+    ByteArrayOutputStream messages = new ByteArrayOutputStream();
+    PrintStream stream = new PrintStream(messages, true, "UTF-8");
+
+    List<String> args = new ArrayList<>(options);
+    args.add(source.toString());
+
+    try {
+      new Main(stream, stream).compile(args.toArray(new String[args.size()]));
+    } catch(RuntimeException e) { stream.println("[decaf] " + source + ": " + e); }
+
+    return messages.toString("UTF-8");
+  }
+
+  /**
+   * @return The file itself, or every .dcf file below it if it is a directory, in sorted order.
+   */
+  private static List<Path> findSources(Path path) throws IOException {
+    if (!Files.isDirectory(path)) return Collections.singletonList(path);
+
+    try (Stream<Path> files = Files.walk(path)) {
+      return files.filter(file -> Files.isRegularFile(file) && file.toString().endsWith(".dcf"))
+                  .sorted()
+                  .collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ */
+
+package decaf;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Thin client for the CompileServer. Takes exactly the same arguments as decaf.Main, sends them to
+ * the server along with the current directory, and prints whatever the compilation printed. As it
+ * loads none of the compiler it starts in a fraction of the time a full compile would take.
+ *
+ * Usage: java decaf.CompileClient [-port N] [-shutdown | compiler arguments...]
+ */
+public class CompileClient {
+  public static void main(String[] args) {
+    int port = CompileServer.DEFAULT_PORT;
+    String command = "compile";
+    List<String> compilerArgs = new ArrayList<>();
+
+    for (int i = 0; i < args.length; i++) {
+      if      (args[i].equals("-port") && i + 1 < args.length)  port = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-shutdown"))                     command = "shutdown";
+      else                                                      compilerArgs.add(args[i]);
+    }
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+         DataOutputStream request = new DataOutputStream(
+           new BufferedOutputStream(socket.getOutputStream()));
+         DataInputStream reply = new DataInputStream(
+           new BufferedInputStream(socket.getInputStream()))) {
+
+      request.writeUTF(command);
+      if (command.equals("compile")) {
+        request.writeUTF(System.getProperty("user.dir"));
+        request.writeInt(compilerArgs.size());
+        for (String arg : compilerArgs) request.writeUTF(arg);
+      }
+      request.flush();
+
+      System.out.write(readBytes(reply));
+      System.out.flush();
+      System.err.write(readBytes(reply));
+      System.err.flush();
+    } catch(IOException e) {
+      System.out.println("[decaf] cannot reach compile server on port " + port + ": " + e);
+      System.exit(1);
+    }
+  }
+
+  private static byte[] readBytes(DataInputStream stream) throws IOException {
+    byte[] bytes = new byte[stream.readInt()];
+    stream.readFully(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ */
+
+package decaf;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import java6G6Z1010.tools.CLI.CLI;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * A long-running compiler that accepts compile requests over a socket on the loopback interface.
+ * Starting a JVM for every small Decaf file means paying for class loading, JIT warm-up and an empty
+ * ANTLR DFA cache every time, which costs more than the compile itself. The generated DecafLexer and
+ * DecafParser share their DFA caches between all instances in a JVM, so every request served here
+ * starts with the predictions made by all the requests before it.
+ *
+ * Started with `java decaf.Main -server [port]`, and sent requests by CompileClient. Each request is
+ * written with a DataOutputStream as:
+ *   UTF command ("compile" or "shutdown"), UTF working directory, int argc, argc * UTF argument
+ * and the reply is the bytes the compilation wrote to stdout and then to stderr, each preceded by an
+ * int length. Requests are compiled concurrently, each by its own Main object.
+ */
+public class CompileServer {
+  public CompileServer(int port) { this.port = port; }
+
+  public static final int DEFAULT_PORT = 7035;
+
+  // Exercises the expr rule and every statement form so the first real request finds a warm cache.
+  private static final String WARM_UP_PROGRAM =
+      "class Program { int a[10]; int f(int x, boolean y) { int i; boolean b;"
+    + " for i = 0, 10 { if (y && x < i || !b) { a[i] = x * (i + 1) - x / 2 % 3; } else { break; } }"
+    + " return -x; } void main() { callout(\"printf\", \"%d\", f(1, true) == 2); } }";
+
+  private final int port;
+  private final ExecutorService workers =
+    Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+  private volatile boolean shutdown;
+  private ServerSocket serverSocket;
+
+  /**
+   * @param args  An optional port number to listen on.
+   */
+  public static void main(String[] args) {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    try {
+      new CompileServer(port).serve();
+    } catch(IOException e) { System.out.println("[decaf] compile server failed: " + e); }
+  }
+
+  /**
+   * Accepts requests until a shutdown request arrives.
+   */
+  public void serve() throws IOException {
+    warmUp();
+    serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    System.out.println("[decaf] compile server listening on port " + port);
+
+    try {
+      while (!shutdown) {
+        final Socket socket;
+        try {
+          socket = serverSocket.accept();
+        } catch(SocketException se) {
+          if (shutdown) break;
+          throw se;
+        }
+        workers.execute(() -> handle(socket));
+      }
+    } finally {
+      workers.shutdown();
+      serverSocket.close();
+    }
+  }
+
+  /**
+   * Reads one request from the socket, compiles it and writes back what the compilation printed.
+   * @param socket  The connection from the client.
+   */
+  private void handle(Socket socket) {
+    try (Socket connection = socket;
+         DataInputStream in = new DataInputStream(
+           new BufferedInputStream(connection.getInputStream()));
+         DataOutputStream reply = new DataOutputStream(
+           new BufferedOutputStream(connection.getOutputStream()))) {
+
+      ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+      ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+      PrintStream out = new PrintStream(stdout, true, "UTF-8");
+      PrintStream err = new PrintStream(stderr, true, "UTF-8");
+
+      String command = in.readUTF();
+      if (command.equals("shutdown")) {
+        shutdown = true;
+        serverSocket.close();
+        out.println("[decaf] compile server stopped.");
+      }
+      else {
+        Path workingDirectory = Paths.get(in.readUTF());
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) args[i] = in.readUTF();
+
+        // With no input file Main would read the program from stdin, which is the server's own. Only
+        // the file name matters here, so the options are parsed without the names of optimisations.
+        if    (CLI.parse(args, new String[0]).infile == null)
+          err.println("[decaf] no input file given.");
+        else {
+          try {
+            new Main(out, err).compile(args, workingDirectory);
+          } catch(RuntimeException e) { err.println("[decaf] " + e); }
+        }
+      }
+
+      writeBytes(reply, stdout.toByteArray());
+      writeBytes(reply, stderr.toByteArray());
+    } catch(IOException e) { System.out.println("[decaf] I/O Error: " + e); }
+  }
+
+  private static void writeBytes(DataOutputStream stream, byte[] bytes) throws IOException {
+    stream.writeInt(bytes.length);
+    stream.write(bytes);
+  }
+
+  /**
+   * Parses a small program so the ATN is deserialised and the DFA populated before the first
+   * request arrives.
+   */
+  private static void warmUp() {
+    DecafLexer lexer = new DecafLexer(new ANTLRInputStream(WARM_UP_PROGRAM));
+    DecafParser parser = new DecafParser(new CommonTokenStream(lexer));
+    lexer.removeErrorListeners();
+    parser.removeErrorListeners();
+    parser.program();
+  }
+}
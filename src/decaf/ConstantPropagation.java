@@ -0,0 +1,401 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ * Wegman, Mark N. and Zadeck, F. Kenneth. (1991). Constant Propagation with Conditional Branches.
+ * ACM Transactions on Programming Languages and Systems, 13(2), 181-210.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * Constant folding and propagation over the IR of one method[1]. Each register is either not yet
+ * known (TOP), known to hold one constant, or known to hold different values on different paths
+ * (BOTTOM). The pass runs forwards over the control flow graph until nothing changes, then goes
+ * over each block once more, rewriting:
+ *   - an arithmetic instruction whose operands are all constants as a move of the result;
+ *   - a register holding a constant, where it is read, as an immediate;
+ *   - a conditional move or jump on a comparison of constants as a move or jump, or nothing.
+ * As in Wegman and Zadeck's conditional constant propagation, a branch that can't be taken doesn't
+ * pass anything along it, so a variable set only to constants on the paths that can run is still
+ * a constant. Instructions left computing values nothing reads are removed by later passes.
+ *
+ * Values are 64-bit, as registers are, and wrap as Java's longs do. Division is only folded where
+ * the idiv would succeed: never by zero, nor the one overflowing case, the least long by -1.
+ *
+ * Only the registers live into some block are carried between blocks; every other register is
+ * written in the block that reads it, so is tracked only during the walk over that block. This
+ * keeps the state per block to the size of the method's variables, not all its temporaries.
+ */
+class ConstantPropagation {
+  ConstantPropagation(ControlFlowGraph graph) { this.graph = graph; }
+
+  private static final byte TOP = 0, CONSTANT = 1, BOTTOM = 2;
+
+  private final ControlFlowGraph graph;
+  private LivenessAnalysis liveness;
+  // The bits of the registers carried between blocks, and the index of each bit among them or -1.
+  private int[] carried, carriedIndex;
+  // The state of the carried registers on entry to each block; null if the block hasn't been
+  // reached.
+  private byte[][] inKind;
+  private long[][] inValue;
+
+  // The state during the walk over a block. A register whose stamp isn't the walk's is BOTTOM.
+  private byte[] kind;
+  private long[] value;
+  private int[] stamp;
+  private int walk;
+  // The values a CMP compared, if both were constants.
+  private boolean flagsKnown;
+  private long compareSource, compareDestination;
+
+  // The number of instructions rewritten.
+  int folded;
+
+  /**
+   * Propagates and folds constants through the method.
+   * @return Whether a jump was folded, so the control flow graph has to be built again.
+   */
+  boolean run() {
+    liveness = new LivenessAnalysis(graph);
+    int blocks = graph.blocks.size(), bits = liveness.flags;
+    kind = new byte[bits];
+    value = new long[bits];
+    stamp = new int[bits];
+
+    carriedIndex = new int[liveness.registers];
+    Arrays.fill(carriedIndex, -1);
+    int count = 0;
+    for (int b = 0; b < blocks; b++)
+      for (int w = 0; w < liveness.words; w++)
+        for (long word = liveness.liveIn[b][w]; word != 0; word &= word - 1) {
+          int bit = (w << 6) + Long.numberOfTrailingZeros(word);
+          if (bit < liveness.registers && carriedIndex[bit] < 0) carriedIndex[bit] = count++;
+        }
+    carried = new int[count];
+    for (int bit = 0; bit < liveness.registers; bit++)
+      if (carriedIndex[bit] >= 0) carried[carriedIndex[bit]] = bit;
+
+    inKind = new byte[blocks][];
+    inValue = new long[blocks][];
+    // Parameters, and variables read before they are written, could hold anything.
+    inKind[0] = new byte[count];
+    inValue[0] = new long[count];
+    Arrays.fill(inKind[0], BOTTOM);
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int b : graph.reversePostorder) {
+        if (inKind[b] == null) continue;
+        List<Instruction> instructions = graph.blocks.get(b).instructions;
+        enter(b);
+        for (int i = 0; i < instructions.size(); i++)
+          step(instructions.get(i), i + 1 < instructions.size() ? instructions.get(i + 1) : null);
+        for (int s : successorsTaken(b)) changed |= merge(s);
+      }
+    }
+
+    boolean jumpsFolded = false;
+    for (int b = 0; b < blocks; b++)
+      if (inKind[b] != null) jumpsFolded |= rewrite(graph.blocks.get(b));
+    return jumpsFolded;
+  }
+
+  private void enter(int block) {
+    walk++;
+    flagsKnown = false;
+    for (int c = 0; c < carried.length; c++) {
+      kind[carried[c]] = inKind[block][c];
+      value[carried[c]] = inValue[block][c];
+      stamp[carried[c]] = walk;
+    }
+  }
+
+  // The successors of the block just walked that control can go to, given what the flags hold.
+  private int[] successorsTaken(int block) {
+    BasicBlock b = graph.blocks.get(block);
+    int size = b.instructions.size();
+    if (size == 0 || !flagsKnown) return graph.successors[block];
+    Instruction last = b.instructions.get(size - 1);
+    if (!last.opcode.isConditionalJump()) return graph.successors[block];
+    if (condition(last.opcode))
+      return new int[] { b.jumpTargets.get(0).index };
+    return b.fallThrough == null ? new int[0] : new int[] { b.fallThrough.index };
+  }
+
+  // Meets the state at the end of the block just walked into the state on entry to a successor.
+  private boolean merge(int successor) {
+    boolean changed = false;
+    if (inKind[successor] == null) {
+      inKind[successor] = new byte[carried.length];
+      inValue[successor] = new long[carried.length];
+      changed = true;
+    }
+    byte[] kinds = inKind[successor];
+    long[] values = inValue[successor];
+    for (int c = 0; c < carried.length; c++) {
+      int bit = carried[c];
+      byte k = kindOf(bit);
+      if (k == TOP || kinds[c] == BOTTOM) continue;
+      if (kinds[c] == TOP) {
+        kinds[c] = k;
+        values[c] = value[bit];
+        changed = true;
+      }
+      else if (k == BOTTOM || values[c] != value[bit]) {
+        kinds[c] = BOTTOM;
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  private byte kindOf(int bit) { return stamp[bit] == walk ? kind[bit] : BOTTOM; }
+
+  private void set(int bit, byte k, long v) {
+    if (bit < 0 || bit >= kind.length) return;
+    kind[bit] = k;
+    value[bit] = v;
+    stamp[bit] = walk;
+  }
+
+  private void set(Operand register, byte k, long v) { set(liveness.bitOf(register), k, v); }
+
+  // The state of an operand: an immediate is a constant, a register has its own state, and a value
+  // in memory is unknown. The value, for a constant, is left in #operandValue.
+  private long operandValue;
+
+  private byte kindOf(Operand operand) {
+    if (operand instanceof Operand.Immediate) {
+      operandValue = ((Operand.Immediate) operand).value;
+      return CONSTANT;
+    }
+    int bit = liveness.bitOf(operand);
+    if (bit < 0) return BOTTOM;
+    operandValue = value[bit];
+    return kindOf(bit);
+  }
+
+  // The state of the result of an operation on two values.
+  private static byte meet(byte a, byte b) {
+    return a == BOTTOM || b == BOTTOM ? BOTTOM : a == TOP || b == TOP ? TOP : CONSTANT;
+  }
+
+  /**
+   * Updates the state for the effect of one instruction.
+   */
+  private void step(Instruction instruction, Instruction next) {
+    Operand source = instruction.source, destination = instruction.destination;
+    switch (instruction.opcode) {
+      case MOV: {
+        byte k = kindOf(source);
+        if (liveness.bitOf(destination) >= 0) set(destination, k, operandValue);
+        break;
+      }
+      case CMOVE: case CMOVNE: case CMOVG: case CMOVL: case CMOVGE: case CMOVLE: {
+        byte k = kindOf(source);
+        long v = operandValue;
+        if (flagsKnown) {
+          if (condition(instruction.opcode)) set(destination, k, v);
+        }
+        else {
+          byte old = kindOf(destination);
+          boolean same = k == CONSTANT && old == CONSTANT && operandValue == v;
+          set(destination, same ? CONSTANT : meet(k, old) == TOP ? TOP : BOTTOM, v);
+        }
+        break;
+      }
+      case ADD: case SUB: case IMUL: {
+        byte k = meet(kindOf(source), kindOf(destination));
+        long v = k == CONSTANT ? arithmetic(instruction) : 0;
+        set(destination, k, v);
+        flagsKnown = false;
+        break;
+      }
+      case CMP: {
+        flagsKnown = kindOf(source) == CONSTANT;
+        compareSource = operandValue;
+        flagsKnown &= kindOf(destination) == CONSTANT;
+        compareDestination = operandValue;
+        break;
+      }
+      case CQTO: {
+        byte k = kindOf(Operand.PhysicalRegister.RAX);
+        set(Operand.PhysicalRegister.RDX, k, operandValue >> 63);
+        break;
+      }
+      case IDIV: {
+        long[] result = divide(source);
+        byte k = result == null ? BOTTOM : CONSTANT;
+        set(Operand.PhysicalRegister.RAX, k, result == null ? 0 : result[0]);
+        set(Operand.PhysicalRegister.RDX, k, result == null ? 0 : result[1]);
+        flagsKnown = false;
+        break;
+      }
+      default:
+        liveness.forEachDef(instruction, bit -> {
+          if (bit == liveness.flags) flagsKnown = false;
+          else                       set(bit, BOTTOM, 0);
+        });
+        break;
+    }
+  }
+
+  // The result of an ADD, SUB or IMUL whose operands are both constants.
+  private long arithmetic(Instruction instruction) {
+    kindOf(instruction.source);
+    long source = operandValue;
+    kindOf(instruction.destination);
+    long destination = operandValue;
+    switch (instruction.opcode) {
+      case ADD: return destination + source;
+      case SUB: return destination - source;
+      default:  return destination * source;
+    }
+  }
+
+  // The quotient and remainder of an IDIV, or null if they aren't known or the division would trap.
+  private long[] divide(Operand divisor) {
+    if (kindOf(divisor) != CONSTANT) return null;
+    long by = operandValue;
+    if (kindOf(Operand.PhysicalRegister.RAX) != CONSTANT) return null;
+    long low = operandValue;
+    if (kindOf(Operand.PhysicalRegister.RDX) != CONSTANT) return null;
+    long high = operandValue;
+    // Only a dividend that fits in %rax, sign extended into %rdx, is a long.
+    if (by == 0 || high != low >> 63 || (low == Long.MIN_VALUE && by == -1)) return null;
+    return new long[] { low / by, low % by };
+  }
+
+  // Whether a conditional move or jump happens, when the flags are known. CMP sets the flags from
+  // its destination less its source.
+  private boolean condition(Opcode opcode) {
+    switch (opcode) {
+      case CMOVE: case JE:    return compareDestination == compareSource;
+      case CMOVNE: case JNE:  return compareDestination != compareSource;
+      case CMOVG: case JG:    return compareDestination >  compareSource;
+      case CMOVL: case JL:    return compareDestination <  compareSource;
+      case CMOVGE: case JGE:  return compareDestination >= compareSource;
+      default:                return compareDestination <= compareSource;
+    }
+  }
+
+  /**
+   * Walks a block once more from its final entry state, rewriting each instruction with what is
+   * known before it runs.
+   * @return Whether a jump at the end of the block was folded.
+   */
+  private boolean rewrite(BasicBlock block) {
+    List<Instruction> instructions = block.instructions;
+    List<Instruction> rewritten = new ArrayList<>(instructions.size());
+    boolean jumpFolded = false;
+    enter(block.index);
+
+    for (int i = 0; i < instructions.size(); i++) {
+      Instruction instruction = instructions.get(i);
+      Instruction next = i + 1 < instructions.size() ? instructions.get(i + 1) : null;
+      Operand source = instruction.source, destination = instruction.destination;
+      boolean registerDestination = destination instanceof Operand.VirtualRegister
+                                    || destination instanceof Operand.PhysicalRegister;
+
+      switch (instruction.opcode) {
+        case MOV:
+          if (!(source instanceof Operand.Immediate) && kindOf(source) == CONSTANT
+              && (registerDestination || fitsImmediate(operandValue)))
+            instruction = fold(Opcode.MOV, Operand.Immediate.of(operandValue), destination);
+          break;
+        case CMOVE: case CMOVNE: case CMOVG: case CMOVL: case CMOVGE: case CMOVLE:
+          if (flagsKnown) {
+            if (condition(instruction.opcode)) {
+              Operand from = kindOf(source) == CONSTANT ? Operand.Immediate.of(operandValue)
+                                                        : source;
+              instruction = fold(Opcode.MOV, from, destination);
+            }
+            else {
+              folded++;
+              instruction = null;
+            }
+          }
+          break;
+        case ADD: case SUB: case IMUL:
+          if (meet(kindOf(source), kindOf(destination)) == CONSTANT && registerDestination) {
+            Operand result = Operand.Immediate.of(arithmetic(instruction));
+            instruction = fold(Opcode.MOV, result, destination);
+          }
+          else
+            instruction = withImmediateSource(instruction);
+          break;
+        case CMP: case PUSH:
+          instruction = withImmediateSource(instruction);
+          break;
+        case IDIV: {
+          long[] result = divide(source);
+          if (result != null) {
+            // The moves take the place of the idiv; the flags it leaves undefined aren't read.
+            rewritten.add(new Instruction(Opcode.MOV, Operand.Immediate.of(result[0]),
+                                          Operand.PhysicalRegister.RAX));
+            instruction = fold(Opcode.MOV, Operand.Immediate.of(result[1]),
+                               Operand.PhysicalRegister.RDX);
+          }
+          break;
+        }
+        case JE: case JNE: case JG: case JL: case JGE: case JLE:
+          if (flagsKnown) {
+            folded++;
+            jumpFolded = true;
+            if (condition(instruction.opcode)) {
+              instruction = new Instruction(Opcode.JMP, source);
+              block.fallThrough = null;
+              block.terminated = true;
+            }
+            else {
+              instruction = null;
+              block.jumpTargets.clear();
+            }
+          }
+          break;
+        default:
+          break;
+      }
+
+      // The state moves on by the original instruction, which the rewritten one matches.
+      step(instructions.get(i), next);
+      if (instruction != null) rewritten.add(instruction);
+    }
+
+    instructions.clear();
+    instructions.addAll(rewritten);
+    return jumpFolded;
+  }
+
+  private Instruction fold(Opcode opcode, Operand source, Operand destination) {
+    folded++;
+    return new Instruction(opcode, source, destination);
+  }
+
+  // Replaces a register source holding a constant with an immediate, where the instruction takes
+  // one.
+  private Instruction withImmediateSource(Instruction instruction) {
+    Operand source = instruction.source;
+    if (source instanceof Operand.Immediate || kindOf(source) != CONSTANT
+        || !fitsImmediate(operandValue))
+      return instruction;
+    return fold(instruction.opcode, Operand.Immediate.of(operandValue), instruction.destination);
+  }
+
+  // Instructions other than a move to a register take immediates of at most 32 bits, sign extended.
+  private static boolean fitsImmediate(long value) {
+    return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+  }
+}
@@ -0,0 +1,372 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ * Cooper, Keith D., Harvey, Timothy J. and Kennedy, Ken. (2001). A Simple, Fast Dominance
+ * Algorithm. Software Practice and Experience, 4, 1-10.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * The control flow graph of one method. The LowLevelIRBuilder already ends a block at every jump
+ * and return and starts one at every label, and records where each block can go next, so the
+ * blocks of the method are the nodes; this numbers them in layout order and works out the rest.
+ * Everything is held in arrays indexed by BasicBlock#index so passes over the graph need no maps:
+ *   - the predecessors and successors of each block,
+ *   - a reverse postorder of the blocks reachable from the entry,
+ *   - the immediate dominator of each block, found with the algorithm of Cooper, Harvey and Kennedy,
+ *   - the dominance frontier of each block,
+ *   - the natural loops, and how deeply each block is nested in them.
+ * Blocks that cannot be reached, such as code after a BREAK, have no dominator and are in no loop.
+ */
+class ControlFlowGraph {
+  ControlFlowGraph(MethodIR method) {
+    this.method = method;
+    for (BasicBlock block = method.first; ; block = block.next) {
+      block.index = blocks.size();
+      blocks.add(block);
+      if (block == method.last) break;
+    }
+
+    int count = blocks.size();
+    successors = new int[count][];
+    predecessors = new int[count][];
+    int[] predecessorCounts = new int[count];
+    for (BasicBlock block : blocks) {
+      List<BasicBlock> targets = block.successors();
+      int[] indices = new int[targets.size()];
+      for (int i = 0; i < indices.length; i++) {
+        indices[i] = targets.get(i).index;
+        predecessorCounts[indices[i]]++;
+      }
+      successors[block.index] = indices;
+    }
+    for (int b = 0; b < count; b++) predecessors[b] = new int[predecessorCounts[b]];
+    for (int b = 0; b < count; b++)
+      for (int s : successors[b]) predecessors[s][--predecessorCounts[s]] = b;
+
+    orderBlocks();
+    findDominators();
+    findDominanceFrontiers();
+    findLoops();
+  }
+
+  final MethodIR method;
+  // The blocks of the method in the order they are laid out; blocks.get(0) is the entry.
+  final List<BasicBlock> blocks = new ArrayList<>();
+  final int[][] successors, predecessors;
+  // The indices of the reachable blocks, each before every block it can reach other than by a
+  // back edge; rpoNumber[b] is the position of b in it, or -1 if b can't be reached.
+  int[] reversePostorder, rpoNumber;
+  // idom[b] is the index of the immediate dominator of b; the entry and unreachable blocks have -1.
+  int[] idom;
+  // The blocks on the dominance frontier of each block.
+  BitSet[] frontiers;
+  // The natural loops, innermost first, and the number of loops each block is in.
+  final List<Loop> loops = new ArrayList<>();
+  int[] loopDepth;
+
+  // Preorder and postorder numbers of the dominator tree, so dominance is tested in constant time.
+  private int[] treeEnter, treeExit;
+
+  /**
+   * A natural loop: the header, which dominates every block of the loop, and every block that can
+   * reach one of the back edges to the header without passing through it.
+   */
+  static class Loop {
+    Loop(int header, int blockCount) {
+      this.header = header;
+      this.body = new BitSet(blockCount);
+    }
+
+    final int header;
+    // The indices of the blocks in the loop, the header included.
+    final BitSet body;
+    // The indices of the blocks with a back edge to the header.
+    final List<Integer> latches = new ArrayList<>();
+    // The innermost loop this one is nested in, or null.
+    Loop parent;
+    // 1 for an outermost loop.
+    int depth;
+  }
+
+  /**
+   * @param block A block of this method.
+   * @return      Whether control can reach the block from the entry.
+   */
+  boolean isReachable(int block) { return rpoNumber[block] >= 0; }
+
+  /**
+   * @param a The index of a block.
+   * @param b The index of a block.
+   * @return  Whether every path from the entry to b passes through a. A block dominates itself.
+   */
+  boolean dominates(int a, int b) {
+    if (!isReachable(a) || !isReachable(b)) return false;
+    return treeEnter[a] <= treeEnter[b] && treeExit[b] <= treeExit[a];
+  }
+
+  /**
+   * @return The block control always comes from when it enters the loop, and which only leads to
+   *         the header, or null if there isn't one.
+   */
+  BasicBlock preheaderOf(Loop loop) {
+    int entering = -1;
+    for (int p : predecessors[loop.header]) {
+      if (loop.body.get(p) || !isReachable(p)) continue;
+      if (entering >= 0) return null;
+      entering = p;
+    }
+    if (entering < 0 || successors[entering].length != 1) return null;
+    return blocks.get(entering);
+  }
+
+  /**
+   * Makes an empty preheader for a loop without one, where that only needs a block laid out before
+   * the header: when control enters the loop from a single block that falls through into it. The
+   * graph no longer matches the method once a block is added, so has to be built again.
+   * @return Whether a block was added.
+   */
+  boolean addPreheader(Loop loop) {
+    if (loop.header == 0 || preheaderOf(loop) != null) return false;
+
+    BasicBlock header = blocks.get(loop.header), entering = null;
+    for (int p : predecessors[loop.header]) {
+      if (loop.body.get(p) || !isReachable(p)) continue;
+      if (entering != null) return false;
+      entering = blocks.get(p);
+    }
+    if (entering == null || entering.next != header || entering.fallThrough != header
+        || entering.jumpTargets.contains(header))
+      return false;
+
+    BasicBlock preheader = new BasicBlock(null);
+    preheader.next = header;
+    preheader.fallThrough = header;
+    entering.next = preheader;
+    entering.fallThrough = preheader;
+    return true;
+  }
+
+  /**
+   * Numbers the blocks in reverse postorder by a depth first search from the entry. The search keeps
+   * its own stack, as deeply nested code makes for long paths through the graph.
+   */
+  private void orderBlocks() {
+    int count = blocks.size();
+    rpoNumber = new int[count];
+    Arrays.fill(rpoNumber, -1);
+    int[] postorder = new int[count];
+    int visited = 0;
+
+    boolean[] seen = new boolean[count];
+    int[] stack = new int[count], nextSuccessor = new int[count];
+    int depth = 0;
+    stack[depth++] = 0;
+    seen[0] = true;
+    while (depth > 0) {
+      int b = stack[depth - 1];
+      if (nextSuccessor[b] < successors[b].length) {
+        int s = successors[b][nextSuccessor[b]++];
+        if (!seen[s]) {
+          seen[s] = true;
+          stack[depth++] = s;
+        }
+      }
+      else {
+        postorder[visited++] = b;
+        depth--;
+      }
+    }
+
+    reversePostorder = new int[visited];
+    for (int i = 0; i < visited; i++) {
+      reversePostorder[i] = postorder[visited - 1 - i];
+      rpoNumber[reversePostorder[i]] = i;
+    }
+  }
+
+  /**
+   * Cooper, Harvey and Kennedy's iterative algorithm. Each reachable block's dominator is the
+   * nearest common ancestor, in the dominator tree found so far, of its processed predecessors;
+   * visiting in reverse postorder means it settles in a couple of passes on structured code.
+   */
+  private void findDominators() {
+    int count = blocks.size();
+    idom = new int[count];
+    Arrays.fill(idom, -1);
+    idom[0] = 0;
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 1; i < reversePostorder.length; i++) {
+        int b = reversePostorder[i];
+        int newIdom = -1;
+        for (int p : predecessors[b]) {
+          if (idom[p] == -1) continue;
+          newIdom = newIdom == -1 ? p : intersect(p, newIdom);
+        }
+        if (idom[b] != newIdom) {
+          idom[b] = newIdom;
+          changed = true;
+        }
+      }
+    }
+    idom[0] = -1;
+
+    numberDominatorTree();
+  }
+
+  // Walks up from both blocks until they meet; the block later in reverse postorder is always the
+  // one that is further from the root.
+  private int intersect(int a, int b) {
+    while (a != b) {
+      while (rpoNumber[a] > rpoNumber[b]) a = idom[a];
+      while (rpoNumber[b] > rpoNumber[a]) b = idom[b];
+    }
+    return a;
+  }
+
+  private void numberDominatorTree() {
+    int count = blocks.size();
+    int[] childCounts = new int[count];
+    for (int b = 1; b < count; b++) if (idom[b] >= 0) childCounts[idom[b]]++;
+    int[][] children = new int[count][];
+    for (int b = 0; b < count; b++) children[b] = new int[childCounts[b]];
+    for (int b = count - 1; b > 0; b--) if (idom[b] >= 0) children[idom[b]][--childCounts[idom[b]]] = b;
+
+    treeEnter = new int[count];
+    treeExit = new int[count];
+    int[] stack = new int[count], nextChild = new int[count];
+    int depth = 0, clock = 0;
+    stack[depth++] = 0;
+    treeEnter[0] = clock++;
+    while (depth > 0) {
+      int b = stack[depth - 1];
+      if (nextChild[b] < children[b].length) {
+        int child = children[b][nextChild[b]++];
+        treeEnter[child] = clock++;
+        stack[depth++] = child;
+      }
+      else {
+        treeExit[b] = clock++;
+        depth--;
+      }
+    }
+  }
+
+  /**
+   * A block is on the frontier of each block that dominates one of its predecessors but not the
+   * block itself. Only blocks where paths join can be on a frontier, so the walk starts from each
+   * predecessor of a join and goes up the dominator tree as far as the join's dominator.
+   */
+  private void findDominanceFrontiers() {
+    int count = blocks.size();
+    frontiers = new BitSet[count];
+    for (int b = 0; b < count; b++) frontiers[b] = new BitSet();
+
+    for (int b : reversePostorder) {
+      if (predecessors[b].length < 2) continue;
+      for (int p : predecessors[b]) {
+        if (!isReachable(p)) continue;
+        for (int runner = p; runner != idom[b] && runner != -1; runner = idom[runner])
+          frontiers[runner].set(b);
+      }
+    }
+  }
+
+  /**
+   * Finds the back edges, those whose target dominates their source, and gathers the blocks of the
+   * loop around each. Back edges to the same header make one loop. Loops are then nested by size:
+   * a loop's parent is the smallest other loop containing its header.
+   */
+  private void findLoops() {
+    int count = blocks.size();
+    Loop[] byHeader = new Loop[count];
+    int[] worklist = new int[count];
+
+    for (int t : reversePostorder) {
+      for (int h : successors[t]) {
+        if (!dominates(h, t)) continue;
+        Loop loop = byHeader[h];
+        if (loop == null) {
+          loop = byHeader[h] = new Loop(h, count);
+          loop.body.set(h);
+          loops.add(loop);
+        }
+        loop.latches.add(t);
+
+        int size = 0;
+        if (!loop.body.get(t)) {
+          loop.body.set(t);
+          worklist[size++] = t;
+        }
+        while (size > 0) {
+          int b = worklist[--size];
+          for (int p : predecessors[b]) {
+            if (!isReachable(p) || loop.body.get(p)) continue;
+            loop.body.set(p);
+            worklist[size++] = p;
+          }
+        }
+      }
+    }
+
+    loops.sort((a, b) -> Integer.compare(a.body.cardinality(), b.body.cardinality()));
+    for (int i = 0; i < loops.size(); i++) {
+      Loop loop = loops.get(i);
+      for (int j = i + 1; j < loops.size() && loop.parent == null; j++)
+        if (loops.get(j).body.get(loop.header)) loop.parent = loops.get(j);
+    }
+
+    loopDepth = new int[count];
+    for (Loop loop : loops)
+      for (int b = loop.body.nextSetBit(0); b >= 0; b = loop.body.nextSetBit(b + 1)) loopDepth[b]++;
+    for (Loop loop : loops) loop.depth = loopDepth[loop.header];
+  }
+
+  /**
+   * @return  The name of a block: its label, or its index if it has none.
+   */
+  String nameOf(int block) {
+    BasicBlock b = blocks.get(block);
+    return b.label != null && b.label.name != null ? b.label.name : "B" + block;
+  }
+
+  /**
+   * @return  A line for each block of the graph: its edges, dominator, frontier and loop depth.
+   */
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    for (int b = 0; b < blocks.size(); b++) {
+      text.append(nameOf(b)).append(": preds ").append(names(predecessors[b]))
+          .append(" succs ").append(names(successors[b]));
+      if (!isReachable(b)) {
+        text.append(" unreachable\n");
+        continue;
+      }
+      text.append(" idom ").append(idom[b] == -1 ? "-" : nameOf(idom[b]))
+          .append(" df ").append(names(frontiers[b].stream().toArray()))
+          .append(" depth ").append(loopDepth[b]).append('\n');
+    }
+    return text.toString();
+  }
+
+  private String names(int[] indices) {
+    StringJoiner joiner = new StringJoiner(", ", "[", "]");
+    for (int b : indices) joiner.add(nameOf(b));
+    return joiner.toString();
+  }
+}
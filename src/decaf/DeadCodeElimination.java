@@ -0,0 +1,187 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * Removes code that can't affect what a method does[1]:
+ *   - blocks control can't reach, such as those after a BREAK or a RETURN, or behind a jump that
+ *     ConstantPropagation found is never taken;
+ *   - a jump to the block laid out straight after it, which control would fall into anyway;
+ *   - labels no jump refers to;
+ *   - instructions whose only effect is to write registers, or the flags, that aren't live after
+ *     them, such as the zeroing of a variable that is assigned before it is read.
+ * Instructions are walked backwards from the live out set of each block, so an instruction that
+ * only fed one found dead is itself found dead in the same walk. Values that flow between blocks
+ * need the liveness worked out again, so the walk is repeated until nothing more is removed.
+ *
+ * An instruction is kept, even if what it writes is dead, if it writes memory or the stack or
+ * frame pointer, passes control elsewhere, or may trap, as idiv does on division by zero.
+ */
+class DeadCodeElimination {
+  DeadCodeElimination(MethodIR method, ControlFlowGraph graph) {
+    this.method = method;
+    this.graph = graph;
+  }
+
+  private final MethodIR method;
+  private ControlFlowGraph graph;
+  // The numbers of instructions, blocks and labels removed.
+  int instructionsRemoved, blocksRemoved, labelsRemoved;
+
+  /**
+   * Removes the dead code from the method.
+   * @return The control flow graph of the method afterwards.
+   */
+  ControlFlowGraph run() {
+    if (method.first == method.last) {
+      while (removeDeadInstructions()) { }
+      return graph;
+    }
+
+    boolean blocksChanged = removeUnreachableBlocks();
+    blocksChanged |= removeJumpsToNext();
+    removeUnusedLabels();
+    if (blocksChanged) graph = new ControlFlowGraph(method);
+
+    while (removeDeadInstructions()) { }
+    return graph;
+  }
+
+  /**
+   * Unlinks each block that can't be reached from the blocks of the method. The last block stays,
+   * emptied, as the blocks of the next method are laid out after it.
+   */
+  private boolean removeUnreachableBlocks() {
+    boolean removed = false;
+    BasicBlock previous = method.first;
+    for (BasicBlock block = method.first.next; block != null; block = block.next) {
+      boolean last = block == method.last;
+      if (graph.isReachable(block.index)) previous = block;
+      else if (last) {
+        instructionsRemoved += block.instructions.size();
+        block.instructions.clear();
+        block.jumpTargets.clear();
+        block.fallThrough = null;
+        removed = true;
+      }
+      else {
+        instructionsRemoved += block.instructions.size();
+        blocksRemoved++;
+        previous.next = block.next;
+        removed = true;
+      }
+      if (last) break;
+    }
+    return removed;
+  }
+
+  /**
+   * Drops a JMP that only skips blocks which are empty, as the blocks control falls into from it
+   * are the same without it.
+   */
+  private boolean removeJumpsToNext() {
+    boolean removed = false;
+    for (BasicBlock block = method.first; block != method.last; block = block.next) {
+      int size = block.instructions.size();
+      if (size == 0 || block.instructions.get(size - 1).opcode != Opcode.JMP) continue;
+
+      BasicBlock target = block.jumpTargets.get(0), next = block.next;
+      while (next != target && next != method.last && next.instructions.isEmpty()
+             && next.fallThrough == next.next)
+        next = next.next;
+      if (next != target) continue;
+
+      block.instructions.remove(size - 1);
+      block.jumpTargets.clear();
+      block.terminated = false;
+      block.fallThrough = block.next;
+      instructionsRemoved++;
+      removed = true;
+    }
+    return removed;
+  }
+
+  private void removeUnusedLabels() {
+    Set<BasicBlock> targets = new HashSet<>();
+    for (BasicBlock block = method.first; ; block = block.next) {
+      targets.addAll(block.jumpTargets);
+      if (block == method.last) break;
+    }
+    for (BasicBlock block = method.first.next; ; block = block.next) {
+      if (block.label != null && !targets.contains(block)) {
+        block.label = null;
+        labelsRemoved++;
+      }
+      if (block == method.last) break;
+    }
+  }
+
+  /**
+   * One backward walk over every block, removing the instructions whose results are dead.
+   * @return Whether anything was removed.
+   */
+  private boolean removeDeadInstructions() {
+    LivenessAnalysis liveness = new LivenessAnalysis(graph);
+    int before = instructionsRemoved;
+
+    for (int b = 0; b < graph.blocks.size(); b++) {
+      List<Instruction> instructions = graph.blocks.get(b).instructions;
+      long[] live = liveness.liveOut[b].clone();
+      boolean[] dead = new boolean[instructions.size()];
+
+      for (int i = instructions.size() - 1; i >= 0; i--) {
+        Instruction instruction = instructions.get(i);
+        if (isRemovable(instruction, liveness, live)) {
+          dead[i] = true;
+          instructionsRemoved++;
+          continue;
+        }
+        liveness.forEachDef(instruction, bit -> LivenessAnalysis.clear(live, bit));
+        liveness.forEachUse(instruction, bit -> LivenessAnalysis.set(live, bit));
+      }
+
+      int kept = 0;
+      for (int i = 0; i < instructions.size(); i++)
+        if (!dead[i]) instructions.set(kept++, instructions.get(i));
+      instructions.subList(kept, instructions.size()).clear();
+    }
+    return instructionsRemoved != before;
+  }
+
+  // Whether the instruction does nothing but write registers that are dead after it.
+  private static boolean isRemovable(Instruction instruction, LivenessAnalysis liveness,
+                                     long[] live) {
+    switch (instruction.opcode) {
+      case MOV: case LEA:
+      case CMOVE: case CMOVNE: case CMOVG: case CMOVL: case CMOVGE: case CMOVLE:
+      case ADD: case SUB: case IMUL:
+        if (instruction.destination instanceof Operand.Memory) return false;
+        break;
+      case CMP: case CQTO:
+        break;
+      default:
+        return false;
+    }
+
+    boolean[] removable = { true };
+    liveness.forEachDef(instruction, bit -> {
+      Operand.PhysicalRegister register = liveness.physicalOf(bit);
+      if (LivenessAnalysis.get(live, bit) || register == Operand.PhysicalRegister.RSP
+          || register == Operand.PhysicalRegister.RBP)
+        removable[0] = false;
+    });
+    return removable[0];
+  }
+}
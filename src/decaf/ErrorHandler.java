@@ -15,17 +15,20 @@ import java.nio.file.*;
 
 /**
  * The Error handler for my Decaf program. Stores each error in a list and provides pretty printing
- * of the set of errors encountered in one compilation.
+ * of the set of errors encountered in one compilation. The offending lines are taken from the
+ * SourceFile the Lexer read, rather than by reading the file a second time.
  */
 public class ErrorHandler {
-  public ErrorHandler() {
-    try {
-      infile = Files.readAllLines(Paths.get(CLI.infile));
-      errors = new HashMap<>();
-    } catch(Exception e) { System.out.println("I/O Error: " + e); }
+  public ErrorHandler(CLI cli, SourceFile infile, PrintStream out) {
+    this.cli = cli;
+    this.infile = infile;
+    this.out = out;
+    errors = new HashMap<>();
   }
 
-  List<String> infile;
+  CLI cli;
+  PrintStream out;
+  SourceFile infile;
   Map<Token, Error> errors;
 
   public int totalErrors() { return errors.size(); }
@@ -41,9 +44,9 @@ public class ErrorHandler {
   // margin and the location of the invalid Symbol.
   private Error _buildError(String message, int lineNumber, int charPos) {
     String fileNameAndLineNumber = 
-      Paths.get(CLI.infile).toAbsolutePath() + ":" + Integer.toString(lineNumber) + "\n";
+      Paths.get(cli.infile).toAbsolutePath() + ":" + Integer.toString(lineNumber) + "\n";
     String strPointer = new String(new char[charPos]).replace("\0", " ") + "^" + "\n";
-    String line = infile.get(lineNumber - 1) + "\n"; 
+    String line = infile.line(lineNumber) + "\n"; 
     String errorMessage = "error: " + message + "\n";
 
     return new Error(fileNameAndLineNumber, strPointer, line, errorMessage);
@@ -52,10 +55,10 @@ public class ErrorHandler {
   public void printErrors() {
     // TODO: Remove duplicate errors from HashMap
     _printErrors();
-    System.out.println("[decaf] TOTAL ERRORS: " + totalErrors());
+    out.println("[decaf] TOTAL ERRORS: " + totalErrors());
   }
 
-  private void _printErrors() {for (Error error : errors.values()) System.out.println(error); }
+  private void _printErrors() {for (Error error : errors.values()) out.println(error); }
 
   class Error {
     public Error(String fileNameAndLineNumber, String pointer, String line, String errorMessage) {
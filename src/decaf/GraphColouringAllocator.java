@@ -0,0 +1,363 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ * Briggs, Preston, Cooper, Keith D. and Torczon, Linda. (1994). Improvements to Graph Coloring
+ * Register Allocation. ACM Transactions on Programming Languages and Systems, 16(3), 428-455.
+ *
+ * George, Lal and Appel, Andrew W. (1996). Iterated Register Coalescing. ACM Transactions on
+ * Programming Languages and Systems, 18(3), 300-324.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * Chaitin-Briggs register allocation by colouring the Register Interference Graph (RIG)[1]. Each
+ * round:
+ *   - build: two registers interfere if one is written while the other is live, except that a move
+ *     doesn't make its source and destination interfere, as they hold the same value;
+ *   - coalesce: the two ends of a move that don't interfere are merged into one node, so the move
+ *     can be deleted, as long as Briggs' test (or George's, where one end is a physical register)
+ *     shows the merged node is no harder to colour;
+ *   - simplify: a node with fewer neighbours than there are colours can always be coloured, so it
+ *     is taken out of the graph and pushed on a stack; when none is left, the node that is cheapest
+ *     to spill for its degree is pushed anyway, in the hope that it can still be coloured;
+ *   - select: nodes are popped and given a colour none of their neighbours has. A node left with
+ *     none is spilled.
+ * If anything was spilled, the spill code is added and the whole thing is done again. The physical
+ * registers the IR already uses, for division, calls and parameters, are nodes coloured in advance.
+ *
+ * Spill cost is the number of times a register is read or written, each weighted by ten to the
+ * power of the loop depth of its block, so registers used in inner loops are the last to go to the
+ * stack. The graph is kept as adjacency lists with a hash set of edges, rather than a bit matrix,
+ * as methods with tens of thousands of registers would need a matrix of hundreds of megabytes.
+ */
+class GraphColouringAllocator extends RegisterAllocator {
+  GraphColouringAllocator(MethodIR method, ControlFlowGraph graph) { super(method, graph); }
+
+  private static final int K = ALLOCATABLE.length;
+  private static final int PHYSICAL = Operand.PhysicalRegister.values().length;
+
+  // The graph of the current round. Nodes are numbered as the bits of the LivenessAnalysis: the
+  // virtual registers, then the physical registers.
+  private int registers;
+  private int[][] adjacency;
+  private int[] adjacencyLength, degree, alias, colour;
+  private double[] cost;
+  private EdgeSet edges;
+  // For counting each neighbour once in Briggs' test: a node has been counted if its mark is stamp.
+  private int[] mark;
+  private int stamp;
+  private int[] moves;
+  private int moveCount;
+  // The number of rounds, and of moves coalesced, over every round.
+  int rounds, coalesced;
+
+  @Override
+  void allocate() {
+    while (true) {
+      rounds++;
+      LivenessAnalysis liveness = new LivenessAnalysis(graph);
+      build(liveness);
+      coalesce();
+      List<Integer> spills = colour();
+      if (spills.isEmpty()) break;
+
+      Operand.Memory[] slotOf = new Operand.Memory[registers];
+      for (int node : spills) {
+        Operand.Memory slot = newSlot();
+        for (int v = 0; v < registers; v++) if (find(v) == node) slotOf[v] = slot;
+      }
+      spilled += spills.size();
+      rewriteSpills(slotOf, liveness);
+    }
+
+    Operand.PhysicalRegister[] assignment = new Operand.PhysicalRegister[registers];
+    for (int v = 0; v < registers; v++) assignment[v] = ALLOCATABLE[colour[find(v)]];
+    assign(assignment);
+    addFrame();
+  }
+
+  private boolean precoloured(int node) { return node >= registers; }
+
+  // Only the flags, %rsp and %rbp are left out of the graph; they are never allocated.
+  private boolean isNode(int bit) {
+    return bit < registers || (bit < registers + PHYSICAL && colour[bit] >= 0);
+  }
+
+  private int find(int node) {
+    while (alias[node] != node) node = alias[node] = alias[alias[node]];
+    return node;
+  }
+
+  private void build(LivenessAnalysis liveness) {
+    registers = liveness.registers;
+    int nodes = registers + PHYSICAL;
+    adjacency = new int[nodes][];
+    adjacencyLength = new int[nodes];
+    degree = new int[nodes];
+    alias = new int[nodes];
+    colour = new int[nodes];
+    cost = new double[nodes];
+    mark = new int[nodes];
+    edges = new EdgeSet(nodes * 8);
+    moves = new int[64];
+    moveCount = 0;
+    for (int n = 0; n < nodes; n++) {
+      alias[n] = n;
+      colour[n] = precoloured(n) ? colourOf(liveness.physicalOf(n)) : -1;
+      if (!precoloured(n)) adjacency[n] = new int[4];
+    }
+
+    for (int b = 0; b < graph.blocks.size(); b++) {
+      double weight = Math.pow(10, Math.min(graph.loopDepth[b], 8));
+      liveness.forEachInstruction(b, (instruction, live) -> {
+        int source = -1;
+        if (instruction.opcode == Opcode.MOV) {
+          int from = liveness.bitOf(instruction.source), to = liveness.bitOf(instruction.destination);
+          if (from >= 0 && to >= 0 && from != to && isNode(from) && isNode(to)) {
+            source = from;
+            addMove(from, to);
+          }
+        }
+        int moveSource = source;
+        liveness.forEachDef(instruction, def -> {
+          if (!isNode(def)) return;
+          for (int w = 0; w < live.length; w++)
+            for (long word = live[w]; word != 0; word &= word - 1) {
+              int other = (w << 6) + Long.numberOfTrailingZeros(word);
+              if (other != def && other != moveSource && isNode(other)) addEdge(def, other);
+            }
+        });
+
+        int id = registerIn(instruction.source);
+        if (id >= 0) cost[id] += weight;
+        id = registerIn(instruction.destination);
+        if (id >= 0) cost[id] += weight;
+      });
+    }
+    for (int v = unspillable.nextSetBit(0); v >= 0 && v < registers; v = unspillable.nextSetBit(v + 1))
+      cost[v] = Double.POSITIVE_INFINITY;
+  }
+
+  private void addMove(int from, int to) {
+    if (moveCount * 2 == moves.length) moves = Arrays.copyOf(moves, moves.length * 2);
+    moves[moveCount * 2] = from;
+    moves[moveCount * 2 + 1] = to;
+    moveCount++;
+  }
+
+  private void addEdge(int u, int v) {
+    if (u == v || !edges.add(u, v)) return;
+    if (!precoloured(u)) addNeighbour(u, v);
+    if (!precoloured(v)) addNeighbour(v, u);
+  }
+
+  // Physical registers have no adjacency list; nothing needs to walk their neighbours.
+  private void addNeighbour(int node, int neighbour) {
+    if (adjacencyLength[node] == adjacency[node].length)
+      adjacency[node] = Arrays.copyOf(adjacency[node], adjacency[node].length * 2);
+    adjacency[node][adjacencyLength[node]++] = neighbour;
+    degree[node]++;
+  }
+
+  /**
+   * Merges the ends of moves until no more pass the tests. Registers made by spilling are left
+   * alone, so a merge can't make one part of a node that might be spilled again.
+   */
+  private void coalesce() {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int m = 0; m < moveCount; m++) {
+        int u = find(moves[m * 2]), v = find(moves[m * 2 + 1]);
+        if (u == v) continue;
+        if (precoloured(v)) { int t = u; u = v; v = t; }
+        if (precoloured(v) || edges.contains(u, v)) continue;
+        if (unspillable.get(v) || (!precoloured(u) && unspillable.get(u))) continue;
+
+        if (precoloured(u) ? george(u, v) : briggs(u, v)) {
+          combine(u, v);
+          coalesced++;
+          changed = true;
+        }
+      }
+    }
+  }
+
+  // Briggs: safe if the merged node would have fewer than K neighbours of significant degree.
+  private boolean briggs(int u, int v) {
+    stamp++;
+    int significant = 0;
+    for (int node = u; ; node = v) {
+      for (int i = 0; i < adjacencyLength[node]; i++) {
+        int t = adjacency[node][i];
+        if (alias[t] != t || mark[t] == stamp) continue;
+        mark[t] = stamp;
+        if ((precoloured(t) || degree[t] >= K) && ++significant >= K) return false;
+      }
+      if (node == v) return true;
+    }
+  }
+
+  // George: safe if every neighbour of v already interferes with u or is of insignificant degree.
+  private boolean george(int u, int v) {
+    for (int i = 0; i < adjacencyLength[v]; i++) {
+      int t = adjacency[v][i];
+      if (alias[t] != t || precoloured(t)) continue;
+      if (degree[t] >= K && !edges.contains(t, u)) return false;
+    }
+    return true;
+  }
+
+  private void combine(int u, int v) {
+    alias[v] = u;
+    cost[u] += cost[v];
+    for (int i = 0; i < adjacencyLength[v]; i++) {
+      int t = adjacency[v][i];
+      if (alias[t] != t) continue;
+      addEdge(t, u);
+      if (!precoloured(t)) degree[t]--;
+    }
+  }
+
+  /**
+   * Simplifies the graph onto a stack, then pops it, colouring as it goes.
+   * @return The nodes that couldn't be coloured.
+   */
+  private List<Integer> colour() {
+    int nodes = registers;
+    boolean[] removed = new boolean[nodes], low = new boolean[nodes];
+    int[] stack = new int[nodes], worklist = new int[nodes];
+    int stackSize = 0, worklistSize = 0, remaining = 0;
+    List<Integer> high = new ArrayList<>();
+
+    for (int n = 0; n < nodes; n++) {
+      if (alias[n] != n) continue;
+      remaining++;
+      if (degree[n] < K) {
+        low[n] = true;
+        worklist[worklistSize++] = n;
+      }
+      else high.add(n);
+    }
+
+    while (remaining > 0) {
+      int n;
+      if (worklistSize > 0) n = worklist[--worklistSize];
+      else {
+        // No node is sure to be colourable; push the cheapest to spill and carry on optimistically.
+        n = -1;
+        double best = Double.POSITIVE_INFINITY;
+        int kept = 0;
+        for (int i = 0; i < high.size(); i++) {
+          int candidate = high.get(i);
+          if (removed[candidate] || low[candidate]) continue;
+          high.set(kept++, candidate);
+          double ratio = cost[candidate] / Math.max(degree[candidate], 1);
+          if (n == -1 || ratio < best) {
+            n = candidate;
+            best = ratio;
+          }
+        }
+        high.subList(kept, high.size()).clear();
+      }
+
+      removed[n] = true;
+      remaining--;
+      stack[stackSize++] = n;
+      for (int i = 0; i < adjacencyLength[n]; i++) {
+        int t = adjacency[n][i];
+        if (alias[t] != t || precoloured(t) || removed[t]) continue;
+        if (--degree[t] == K - 1 && !low[t]) {
+          low[t] = true;
+          worklist[worklistSize++] = t;
+        }
+      }
+    }
+
+    List<Integer> spills = new ArrayList<>();
+    while (stackSize > 0) {
+      int n = stack[--stackSize];
+      int taken = 0;
+      for (int i = 0; i < adjacencyLength[n]; i++) {
+        int c = colour[find(adjacency[n][i])];
+        if (c >= 0) taken |= 1 << c;
+      }
+      int free = Integer.numberOfTrailingZeros(~taken);
+      if (free < K) colour[n] = free;
+      else          spills.add(n);
+    }
+    return spills;
+  }
+
+  /**
+   * A set of the edges of the graph, each a pair of node numbers in either order, in one open
+   * addressed table of longs.
+   */
+  private static class EdgeSet {
+    EdgeSet(int expected) {
+      int capacity = Integer.highestOneBit(Math.max(expected, 16) * 2);
+      table = new long[capacity];
+      Arrays.fill(table, EMPTY);
+    }
+
+    private static final long EMPTY = -1;
+    private long[] table;
+    private int size;
+
+    boolean contains(int u, int v) {
+      long key = key(u, v);
+      for (int i = slot(key, table.length); ; i = (i + 1) & (table.length - 1)) {
+        if (table[i] == key)    return true;
+        if (table[i] == EMPTY)  return false;
+      }
+    }
+
+    /**
+     * @return Whether the edge is new.
+     */
+    boolean add(int u, int v) {
+      if ((size + 1) * 2 > table.length) grow();
+      long key = key(u, v);
+      for (int i = slot(key, table.length); ; i = (i + 1) & (table.length - 1)) {
+        if (table[i] == key) return false;
+        if (table[i] == EMPTY) {
+          table[i] = key;
+          size++;
+          return true;
+        }
+      }
+    }
+
+    private void grow() {
+      long[] old = table;
+      table = new long[old.length * 2];
+      Arrays.fill(table, EMPTY);
+      for (long key : old) {
+        if (key == EMPTY) continue;
+        int i = slot(key, table.length);
+        while (table[i] != EMPTY) i = (i + 1) & (table.length - 1);
+        table[i] = key;
+      }
+    }
+
+    private static long key(int u, int v) {
+      return u < v ? ((long) u << 32) | v : ((long) v << 32) | u;
+    }
+
+    private static int slot(long key, int length) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h >>> 32) & (length - 1);
+    }
+  }
+}
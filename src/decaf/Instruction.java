@@ -0,0 +1,38 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from 
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ */
+
+package decaf;
+
+/**
+ * One instruction of the low level IR, in two-address AT&T form: the destination is also the
+ * second source, as in `add src, dest`. Operands are typed, so that later passes can read and
+ * rewrite them, and unused operands are null. Instructions are only turned into text by the
+ * AssemblyPrinter.
+ */
+class Instruction {
+  Instruction(Opcode opcode, Operand source, Operand destination) {
+    this.opcode = opcode;
+    this.source = source;
+    this.destination = destination;
+  }
+
+  Instruction(Opcode opcode, Operand source) { this(opcode, source, null); }
+
+  Instruction(Opcode opcode) { this(opcode, null, null); }
+
+  final Opcode opcode;
+  Operand source;
+  Operand destination;
+
+  @Override
+  public String toString() { return AssemblyPrinter.format(this); }
+}
@@ -0,0 +1,121 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from 
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * The linked list of BasicBlocks that makes up the program. Code that can only be made after the
+ * code that follows it, such as the test at the top of an IF, is appended to the end of an earlier
+ * block, so every instruction is added in constant time and none is ever moved. The decision to use
+ * this over the Visitor pattern is due to the simplicity of adding to blocks as the tree is walked
+ * vs designing a complex tree traversal.
+ */
+class InstructionSet {
+  InstructionSet() {
+    first = current = new BasicBlock(null);
+    addInstruction(new Instruction(Opcode.GLOBAL, new Operand.Label("main")));
+  }
+
+  private BasicBlock first;
+  private BasicBlock current;
+  private int size;
+  // Each method, in the order the methods are declared.
+  final List<MethodIR> methods = new ArrayList<>();
+
+  void addInstruction(Instruction instruction) { addInstruction(current, instruction); }
+
+  void addInstruction(BasicBlock block, Instruction instruction) {
+    block.instructions.add(instruction);
+    size++;
+  }
+
+  /**
+   * Ends a block with a jump. An unconditional jump leaves nothing for the next block to fall
+   * through from, so the rest of the current block is started afresh.
+   * @param block   The block to end.
+   * @param jump    The jump instruction.
+   * @param target  The block jumped to.
+   */
+  void addJump(BasicBlock block, Instruction jump, BasicBlock target) {
+    addInstruction(block, jump);
+    block.jumpTargets.add(target);
+    if (jump.opcode.isUnconditional()) {
+      block.terminated = true;
+      block.fallThrough = null;
+      if (block == current) startBlock(new BasicBlock(null));
+    }
+  }
+
+  void addJump(Instruction jump, BasicBlock target) { addJump(current, jump, target); }
+
+  void addReturn(Instruction instruction) {
+    addInstruction(instruction);
+    current.terminated = true;
+  }
+
+  /**
+   * Lays out a new block after the current one and makes it current.
+   * @param block The block to start.
+   */
+  void startBlock(BasicBlock block) {
+    if (!current.terminated) current.fallThrough = block;
+    current.next = block;
+    current = block;
+  }
+
+  /**
+   * Lays out the first block of a method, which control never falls into.
+   * @param method The method to start.
+   */
+  void startMethod(MethodIR method) {
+    startSection(method.first);
+    methods.add(method);
+  }
+
+  /**
+   * Lays out a block that control never falls into, such as the start of the data segment.
+   * @param block The block to start.
+   */
+  void startSection(BasicBlock block) {
+    current.next = block;
+    current = block;
+  }
+
+  /**
+   * Lets go of every block laid out so far, once they have been printed, so that they can be
+   * garbage collected. The blocks laid out next start a new chain, from a new, empty first block.
+   */
+  void restart() {
+    first = current = new BasicBlock(null);
+    methods.clear();
+  }
+
+  BasicBlock current() { return current; }
+
+  BasicBlock first() { return first; }
+
+  /**
+   * @return The number of instructions added to the blocks, including any since let go of.
+   */
+  int size() { return size; }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    try {
+      AssemblyPrinter.print(first, null, text);
+    } catch (java.io.IOException e) { throw new AssertionError(e); }
+    return text.toString();
+  }
+}
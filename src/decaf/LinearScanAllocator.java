@@ -0,0 +1,208 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Poletto, Massimiliano and Sarkar, Vivek. (1999). Linear Scan Register Allocation. ACM
+ * Transactions on Programming Languages and Systems, 21(5), 895-913.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * Linear scan register allocation[1], for when the compile has to be fast more than the code has to
+ * be good. The instructions of the method are numbered in layout order and each virtual register
+ * is given one live interval, from the first point it is live to the last. The intervals are then
+ * visited in order of their start, keeping the ones still live in an active list: an interval takes
+ * any register no active interval holds, and when there is none, whichever of it and the active
+ * intervals ends last is spilled. That is one pass with at most 14 active intervals, so the time
+ * is close to linear in the size of the method, where colouring has to build the whole graph.
+ *
+ * Each instruction has two points, 2i where it reads its operands and 2i + 1 where it writes its
+ * results, so a register that dies at an instruction can be handed to the one it writes, and a
+ * move between them disappears. The physical registers the IR already uses are kept as the set of
+ * points where each is live; an interval can only take a register that is free over all of it.
+ * Spilled registers are rewritten as for colouring and the scan done again, which ends quickly as
+ * the registers made for spill code are only live across one instruction.
+ */
+class LinearScanAllocator extends RegisterAllocator {
+  LinearScanAllocator(MethodIR method, ControlFlowGraph graph) { super(method, graph); }
+
+  private static final int K = ALLOCATABLE.length;
+
+  // The interval of each virtual register; start is Integer.MAX_VALUE for one that is never used.
+  private int[] start, end;
+  // The points at which each allocatable register is already taken by the IR.
+  private BitSet[] fixed;
+  // The number of rounds.
+  int rounds;
+
+  @Override
+  void allocate() {
+    int[] colour;
+    while (true) {
+      rounds++;
+      LivenessAnalysis liveness = new LivenessAnalysis(graph);
+      buildIntervals(liveness);
+      colour = new int[liveness.registers];
+      List<Integer> spills = scan(colour);
+      if (spills.isEmpty()) break;
+
+      Operand.Memory[] slotOf = new Operand.Memory[liveness.registers];
+      for (int v : spills) slotOf[v] = newSlot();
+      spilled += spills.size();
+      rewriteSpills(slotOf, liveness);
+    }
+
+    Operand.PhysicalRegister[] assignment = new Operand.PhysicalRegister[colour.length];
+    for (int v = 0; v < colour.length; v++) if (colour[v] >= 0) assignment[v] = ALLOCATABLE[colour[v]];
+    assign(assignment);
+    addFrame();
+  }
+
+  /**
+   * Works out the interval of every virtual register, and the points each physical register is
+   * taken, in one backward walk over each block. Within a block a virtual register is only live
+   * between a write and a read of it, or into or out of the block, so the first and last of those
+   * points bound its interval exactly; physical registers are tracked point by point, as they are
+   * live only briefly and a bound would cover the whole method.
+   */
+  private void buildIntervals(LivenessAnalysis liveness) {
+    int registers = liveness.registers;
+    start = new int[registers];
+    end = new int[registers];
+    Arrays.fill(start, Integer.MAX_VALUE);
+    Arrays.fill(end, -1);
+    fixed = new BitSet[K];
+    for (int c = 0; c < K; c++) fixed[c] = new BitSet();
+
+    int position = 0;
+    int[] colourOfBit = new int[liveness.flags - registers];
+    for (int bit = registers; bit < liveness.flags; bit++)
+      colourOfBit[bit - registers] = colourOf(liveness.physicalOf(bit));
+
+    for (int b = 0; b < graph.blocks.size(); b++) {
+      List<Instruction> instructions = graph.blocks.get(b).instructions;
+      if (instructions.isEmpty()) continue;
+      int first = position, last = position + instructions.size() - 1;
+      position += instructions.size();
+
+      long[] in = liveness.liveIn[b], out = liveness.liveOut[b];
+      int[] live = new int[1];
+      for (int w = 0; w < liveness.words; w++) {
+        for (long word = in[w]; word != 0; word &= word - 1) {
+          int bit = (w << 6) + Long.numberOfTrailingZeros(word);
+          if (bit < registers) start[bit] = Math.min(start[bit], 2 * first);
+        }
+        for (long word = out[w]; word != 0; word &= word - 1) {
+          int bit = (w << 6) + Long.numberOfTrailingZeros(word);
+          if (bit < registers) end[bit] = Math.max(end[bit], 2 * last + 1);
+          else if (bit < liveness.flags && colourOfBit[bit - registers] >= 0)
+            live[0] |= 1 << colourOfBit[bit - registers];
+        }
+      }
+
+      // live[0] holds the colours of the physical registers live after the current instruction.
+      for (int i = instructions.size() - 1; i >= 0; i--) {
+        Instruction instruction = instructions.get(i);
+        int read = 2 * (first + i), write = read + 1;
+
+        for (int c = 0; c < K; c++) if ((live[0] & (1 << c)) != 0) fixed[c].set(write);
+        liveness.forEachDef(instruction, bit -> {
+          if (bit < registers) {
+            start[bit] = Math.min(start[bit], write);
+            end[bit] = Math.max(end[bit], write);
+          }
+          else if (bit < liveness.flags && colourOfBit[bit - registers] >= 0) {
+            fixed[colourOfBit[bit - registers]].set(write);
+            live[0] &= ~(1 << colourOfBit[bit - registers]);
+          }
+        });
+        liveness.forEachUse(instruction, bit -> {
+          if (bit < registers) {
+            start[bit] = Math.min(start[bit], read);
+            end[bit] = Math.max(end[bit], read);
+          }
+          else if (bit < liveness.flags && colourOfBit[bit - registers] >= 0) {
+            fixed[colourOfBit[bit - registers]].set(read);
+            live[0] |= 1 << colourOfBit[bit - registers];
+          }
+        });
+        // Registers live before the instruction are taken where it reads, as well as where the one
+        // before it writes.
+        for (int c = 0; c < K; c++) if ((live[0] & (1 << c)) != 0) fixed[c].set(read);
+      }
+    }
+  }
+
+  /**
+   * The scan itself. Registers made by spilling are never chosen to be spilled; there is always
+   * another interval to spill instead, as no instruction uses more than two of them.
+   * @param colour  Filled in with the index in #ALLOCATABLE of each register's register.
+   * @return        The virtual registers to spill.
+   */
+  private List<Integer> scan(int[] colour) {
+    Arrays.fill(colour, -1);
+    Integer[] order = new Integer[start.length];
+    int intervals = 0;
+    for (int v = 0; v < start.length; v++) if (start[v] != Integer.MAX_VALUE) order[intervals++] = v;
+    Arrays.sort(order, 0, intervals, (a, b) -> Integer.compare(start[a], start[b]));
+
+    List<Integer> spills = new ArrayList<>();
+    // The active intervals, in order of their end, and the colours they hold.
+    int[] active = new int[K];
+    int activeCount = 0, taken = 0;
+
+    for (int n = 0; n < intervals; n++) {
+      int v = order[n];
+
+      int expired = 0;
+      while (expired < activeCount && end[active[expired]] < start[v])
+        taken &= ~(1 << colour[active[expired++]]);
+      System.arraycopy(active, expired, active, 0, activeCount -= expired);
+
+      int chosen = -1;
+      for (int c = 0; c < K && chosen < 0; c++)
+        if ((taken & (1 << c)) == 0 && isFree(c, v)) chosen = c;
+
+      if (chosen < 0) {
+        int victim = -1;
+        for (int a = activeCount - 1; a >= 0 && victim < 0; a--) {
+          int w = active[a];
+          if (unspillable.get(w) || !isFree(colour[w], v)) continue;
+          if (end[w] > end[v] || unspillable.get(v)) victim = a;
+        }
+        if (victim < 0) {
+          if (unspillable.get(v))
+            throw new IllegalStateException("No register left for " + method.registers.get(v));
+          spills.add(v);
+          continue;
+        }
+        int w = active[victim];
+        chosen = colour[w];
+        colour[w] = -1;
+        spills.add(w);
+        System.arraycopy(active, victim + 1, active, victim, activeCount - victim - 1);
+        activeCount--;
+      }
+
+      colour[v] = chosen;
+      taken |= 1 << chosen;
+      int a = activeCount++;
+      while (a > 0 && end[active[a - 1]] > end[v]) active[a] = active[--a];
+      active[a] = v;
+    }
+    return spills;
+  }
+
+  // Whether a colour's physical register is free of the IR's own uses over the whole interval.
+  private boolean isFree(int colour, int v) {
+    int taken = fixed[colour].nextSetBit(start[v]);
+    return taken < 0 || taken > end[v];
+  }
+}
@@ -0,0 +1,367 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ * Intel (2016). Intel 64 and IA-32 Architectures Software Developer’s Manual. Online. p113-118.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * Works out which registers are live, meaning they hold a value that may still be read, at the
+ * start and end of each block of a method, and after each instruction. Liveness is found by the
+ * usual backward dataflow over the ControlFlowGraph[1]: a register is live into a block if the block
+ * reads it before writing it, or if it is live out of the block and the block doesn't write it;
+ * live out of a block if it is live into any successor.
+ *
+ * Sets of registers are long[] bitsets. Bit i stands for the virtual register numbered i, and after
+ * the method's virtual registers come the sixteen physical registers, then the flags, which are
+ * set by arithmetic and comparison and read by conditional moves and jumps. The physical registers
+ * are tracked so the register allocator can see which virtual registers are live across a call or
+ * a division, which overwrite fixed registers.
+ */
+class LivenessAnalysis {
+  LivenessAnalysis(ControlFlowGraph graph) {
+    this.graph = graph;
+    this.registers = graph.method.registerCount();
+    this.size = registers + PHYSICAL.length + 1;
+    this.flags = size - 1;
+    this.words = (size + 63) >>> 6;
+
+    int count = graph.blocks.size();
+    uses = new long[count][];
+    defs = new long[count][];
+    liveIn = new long[count][];
+    liveOut = new long[count][];
+    for (int b = 0; b < count; b++) {
+      uses[b] = new long[words];
+      defs[b] = new long[words];
+      liveIn[b] = new long[words];
+      liveOut[b] = new long[words];
+      summarise(graph.blocks.get(b), uses[b], defs[b]);
+    }
+    solve();
+  }
+
+  private static final Operand.PhysicalRegister[] PHYSICAL = Operand.PhysicalRegister.values();
+
+  // The registers a call may overwrite, under the System V calling convention.
+  static final Operand.PhysicalRegister[] CALLER_SAVED = {
+    Operand.PhysicalRegister.RAX, Operand.PhysicalRegister.RCX, Operand.PhysicalRegister.RDX,
+    Operand.PhysicalRegister.RSI, Operand.PhysicalRegister.RDI, Operand.PhysicalRegister.R8,
+    Operand.PhysicalRegister.R9, Operand.PhysicalRegister.R10, Operand.PhysicalRegister.R11
+  };
+
+  final ControlFlowGraph graph;
+  // The number of virtual registers, the number of bits in a set, and the bit of the flags.
+  final int registers, size, flags;
+  // The number of longs in a set.
+  final int words;
+  // Per block: the registers read before being written, and the registers written.
+  private final long[][] uses, defs;
+  final long[][] liveIn, liveOut;
+  // The number of blocks taken off the worklist before nothing more changed.
+  int visits;
+
+  /**
+   * Is told, for each instruction of a block from the last to the first, which registers are live
+   * just after it.
+   */
+  interface InstructionVisitor {
+    /**
+     * @param instruction The instruction.
+     * @param liveAfter   The registers live after it. Only valid until this method returns.
+     */
+    void visit(Instruction instruction, long[] liveAfter);
+  }
+
+  /**
+   * @param  operand  A register, or any other operand.
+   * @return          The bit that stands for the register, or -1 if the operand isn't a register.
+   */
+  int bitOf(Operand operand) {
+    if (operand instanceof Operand.VirtualRegister)  return ((Operand.VirtualRegister) operand).id;
+    if (operand instanceof Operand.PhysicalRegister)
+      return registers + ((Operand.PhysicalRegister) operand).ordinal();
+    if (operand instanceof Operand.LowByte)
+      return registers + ((Operand.LowByte) operand).register.ordinal();
+    return -1;
+  }
+
+  /**
+   * @param  bit  A bit of a set.
+   * @return      The physical register it stands for, or null if it isn't one.
+   */
+  Operand.PhysicalRegister physicalOf(int bit) {
+    return bit >= registers && bit < flags ? PHYSICAL[bit - registers] : null;
+  }
+
+  /**
+   * Walks a block backwards from its live out set, telling the visitor what is live after each
+   * instruction. Nothing is stored per instruction, so this costs no more memory than one set.
+   * @param block   The index of the block.
+   * @param visitor Told about each instruction in turn.
+   */
+  void forEachInstruction(int block, InstructionVisitor visitor) {
+    long[] live = liveOut[block].clone();
+    List<Instruction> instructions = graph.blocks.get(block).instructions;
+    for (int i = instructions.size() - 1; i >= 0; i--) {
+      visitor.visit(instructions.get(i), live);
+      step(instructions, i, live);
+    }
+  }
+
+  /**
+   * @return  The registers live into each instruction of a block, first to last. For tests and
+   *          debugging; the allocator uses #forEachInstruction, which keeps only one set.
+   */
+  long[][] liveBefore(int block) {
+    List<Instruction> instructions = graph.blocks.get(block).instructions;
+    long[][] before = new long[instructions.size()][];
+    long[] live = liveOut[block].clone();
+    for (int i = instructions.size() - 1; i >= 0; i--) {
+      step(instructions, i, live);
+      before[i] = live.clone();
+    }
+    return before;
+  }
+
+  /**
+   * Moves a live set from after an instruction to before it: what it writes is no longer live,
+   * then what it reads is.
+   */
+  private void step(List<Instruction> instructions, int i, long[] live) {
+    forEachDef(instructions.get(i), bit -> clear(live, bit));
+    forEachUse(instructions.get(i), bit -> set(live, bit));
+  }
+
+  /**
+   * Finds the registers a block reads before writing, and those it writes, by walking it backwards.
+   */
+  private void summarise(BasicBlock block, long[] use, long[] def) {
+    for (int i = block.instructions.size() - 1; i >= 0; i--) {
+      Instruction instruction = block.instructions.get(i);
+      forEachDef(instruction, bit -> { set(def, bit); clear(use, bit); });
+      forEachUse(instruction, bit -> set(use, bit));
+    }
+  }
+
+  /**
+   * Iterates to a fixed point. The worklist starts with every block in postorder, the reverse of the
+   * graph's reverse postorder, as liveness flows backwards, so on code without loops each block is
+   * visited once with its successors already done. A block is only put back when the live in set of
+   * one of its successors grows.
+   */
+  private void solve() {
+    int count = graph.blocks.size();
+    int[] queue = new int[count];
+    boolean[] queued = new boolean[count];
+    int head = 0, length = 0;
+
+    int[] order = graph.reversePostorder;
+    for (int i = order.length - 1; i >= 0; i--) queued[queue[length++] = order[i]] = true;
+    for (int b = 0; b < count; b++) if (!queued[b]) queued[queue[length++] = b] = true;
+
+    while (length > 0) {
+      int b = queue[head];
+      head = (head + 1) % count;
+      length--;
+      queued[b] = false;
+      visits++;
+
+      long[] out = liveOut[b];
+      for (int s : graph.successors[b]) or(out, liveIn[s]);
+
+      // in = use | (out & ~def)
+      long[] in = liveIn[b], use = uses[b], def = defs[b];
+      boolean changed = false;
+      for (int w = 0; w < words; w++) {
+        long next = use[w] | (out[w] & ~def[w]);
+        if (next != in[w]) {
+          in[w] = next;
+          changed = true;
+        }
+      }
+      if (!changed) continue;
+
+      for (int p : graph.predecessors[b]) {
+        if (queued[p]) continue;
+        queued[p] = true;
+        queue[(head + length++) % count] = p;
+      }
+    }
+  }
+
+  interface BitConsumer { void accept(int bit); }
+
+  /**
+   * Tells the consumer about each register the instruction reads. Instructions are two-address, so
+   * the destination of an arithmetic instruction is read as well as written, and a conditional
+   * move reads its destination as it may leave it as it was. A memory operand reads its base.
+   * @param instruction The instruction.
+   * @param consumer    Told the bit of each register read.
+   */
+  void forEachUse(Instruction instruction, BitConsumer consumer) {
+    Operand source = instruction.source, destination = instruction.destination;
+    switch (instruction.opcode) {
+      case MOV:
+        useOf(source, consumer);
+        addressOf(destination, consumer);
+        break;
+      case CMOVE: case CMOVNE: case CMOVG: case CMOVL: case CMOVGE: case CMOVLE:
+        useOf(source, consumer);
+        useOf(destination, consumer);
+        consumer.accept(flags);
+        break;
+      case LEA:
+        addressOf(source, consumer);
+        break;
+      case ADD: case SUB: case IMUL: case CMP:
+        useOf(source, consumer);
+        useOf(destination, consumer);
+        break;
+      case XOR:
+        // xor of a register with itself zeroes it, whatever it held.
+        if (!sameOperand(source, destination)) {
+          useOf(source, consumer);
+          useOf(destination, consumer);
+        }
+        break;
+      case SETE: case SETNE: case SETG: case SETL: case SETGE: case SETLE:
+        // Only the low byte is written, so the rest of the register is read as it was.
+        useOf(source, consumer);
+        consumer.accept(flags);
+        break;
+      case MOVZB:
+        useOf(source, consumer);
+        break;
+      case IDIV:
+        useOf(source, consumer);
+        consumer.accept(bitOf(Operand.PhysicalRegister.RAX));
+        consumer.accept(bitOf(Operand.PhysicalRegister.RDX));
+        break;
+      case CQTO:
+        consumer.accept(bitOf(Operand.PhysicalRegister.RAX));
+        break;
+      case PUSH:
+        useOf(source, consumer);
+        break;
+      case POP:
+        addressOf(source, consumer);
+        break;
+      case CALL:
+        for (Operand.PhysicalRegister argument : Operand.PhysicalRegister.ARGUMENTS)
+          consumer.accept(bitOf(argument));
+        break;
+      case RET:
+        consumer.accept(bitOf(Operand.PhysicalRegister.RAX));
+        break;
+      case JE: case JNE: case JG: case JL: case JGE: case JLE:
+        consumer.accept(flags);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Tells the consumer about each register the instruction writes.
+   */
+  void forEachDef(Instruction instruction, BitConsumer consumer) {
+    switch (instruction.opcode) {
+      case MOV: case LEA:
+      case CMOVE: case CMOVNE: case CMOVG: case CMOVL: case CMOVGE: case CMOVLE:
+        defOf(instruction.destination, consumer);
+        break;
+      case ADD: case SUB: case IMUL: case XOR:
+        defOf(instruction.destination, consumer);
+        consumer.accept(flags);
+        break;
+      case MOVZB:
+        defOf(instruction.destination, consumer);
+        break;
+      case SETE: case SETNE: case SETG: case SETL: case SETGE: case SETLE:
+        defOf(instruction.source, consumer);
+        break;
+      case CMP:
+        consumer.accept(flags);
+        break;
+      case CQTO:
+        consumer.accept(bitOf(Operand.PhysicalRegister.RDX));
+        break;
+      case IDIV:
+        consumer.accept(bitOf(Operand.PhysicalRegister.RAX));
+        consumer.accept(bitOf(Operand.PhysicalRegister.RDX));
+        consumer.accept(flags);
+        break;
+      case POP:
+        defOf(instruction.source, consumer);
+        break;
+      case CALL:
+        for (Operand.PhysicalRegister register : CALLER_SAVED) consumer.accept(bitOf(register));
+        consumer.accept(flags);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private static boolean sameOperand(Operand a, Operand b) {
+    return a == b || (a instanceof Operand.VirtualRegister && b instanceof Operand.VirtualRegister
+                      && ((Operand.VirtualRegister) a).id == ((Operand.VirtualRegister) b).id);
+  }
+
+  // A register operand is read; a memory operand reads the register holding its address.
+  private void useOf(Operand operand, BitConsumer consumer) {
+    int bit = bitOf(operand);
+    if (bit >= 0) consumer.accept(bit);
+    else          addressOf(operand, consumer);
+  }
+
+  private void addressOf(Operand operand, BitConsumer consumer) {
+    if (!(operand instanceof Operand.Memory)) return;
+    int bit = bitOf(((Operand.Memory) operand).base);
+    if (bit >= 0) consumer.accept(bit);
+  }
+
+  // Only a register is written; writing to memory reads the register holding its address.
+  private void defOf(Operand operand, BitConsumer consumer) {
+    int bit = bitOf(operand);
+    if (bit >= 0) consumer.accept(bit);
+  }
+
+  static boolean get(long[] bits, int bit) { return (bits[bit >>> 6] & (1L << bit)) != 0; }
+
+  static void set(long[] bits, int bit) { bits[bit >>> 6] |= 1L << bit; }
+
+  static void clear(long[] bits, int bit) { bits[bit >>> 6] &= ~(1L << bit); }
+
+  static void or(long[] into, long[] bits) {
+    for (int w = 0; w < into.length; w++) into[w] |= bits[w];
+  }
+
+  /**
+   * @return The registers in a set, as their operands, separated by spaces.
+   */
+  String describe(long[] bits) {
+    StringJoiner joiner = new StringJoiner(" ");
+    for (int w = 0; w < words; w++) {
+      for (long word = bits[w]; word != 0; word &= word - 1) {
+        int bit = (w << 6) + Long.numberOfTrailingZeros(word);
+        if      (bit == flags)        joiner.add("flags");
+        else if (bit >= registers)    joiner.add(physicalOf(bit).toString());
+        else                          joiner.add(graph.method.registers.get(bit).toString());
+      }
+    }
+    return joiner.toString();
+  }
+}
@@ -0,0 +1,270 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ * Aho, Alfred V., Lam, Monica S., Sethi, Ravi and Ullman, Jeffrey D. (2006). Compilers:
+ * Principles, Techniques, and Tools (2nd ed.). USA: Addison-Wesley. 1009.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * Moves the computations a loop repeats on every iteration, though their result never changes,
+ * out to a preheader, a block that runs once before the loop is entered[1]. The loops are the
+ * natural loops of the ControlFlowGraph, innermost first, so what is hoisted out of an inner loop
+ * into its preheader can then be hoisted out of the loop around it too.
+ *
+ * The IR isn't in SSA form, and instructions are two-address, so a value such as length * length
+ * is a MOV into a register followed by arithmetic on it. What is hoisted is therefore every write
+ * to a register at once, if:
+ *   - all of the writes to it in the loop are in one block, and are MOV, LEA, ADD, SUB or IMUL;
+ *   - nothing else reads it between the first write and the last;
+ *   - it isn't live into the loop's header, so no read in the loop sees a value from an earlier
+ *     iteration or from before the loop;
+ *   - everything else they read is invariant: constants, labels, registers the loop doesn't write
+ *     or whose writes have been hoisted, and memory the loop can't store to;
+ *   - the flags they set aren't read after them, or into the header.
+ * A load through a register might fault on an address the loop only forms to guard it, so it is
+ * only hoisted from a block that runs whenever the loop is left. Calls may store anywhere, so no
+ * load is hoisted out of a loop with one. Nor is any load hoisted out of a loop that stores through
+ * a register, as ValueNumbering has it: an array element's address is worked out at runtime, and
+ * may be that of a global next to the array as well as of another element.
+ */
+class LoopInvariantCodeMotion {
+  LoopInvariantCodeMotion(MethodIR method, ControlFlowGraph graph) {
+    this.method = method;
+    this.graph = graph;
+  }
+
+  private final MethodIR method;
+  private ControlFlowGraph graph;
+  private LivenessAnalysis liveness;
+
+  // For the loop being worked on, stamp: the block writing each register, or -1 if more than one
+  // block does, valid where defStamp is the stamp; and whether it has been hoisted.
+  private int[] defBlock, defStamp, hoistedStamp;
+  private int stamp;
+  // What the loop being worked on may store to.
+  private boolean hasCall, storesThroughRegisters;
+  private final Set<String> storedSymbols = new HashSet<>();
+
+  // The numbers of instructions hoisted and preheaders made.
+  int hoisted, preheadersAdded;
+
+  /**
+   * Hoists the invariant instructions of every loop of the method.
+   * @return The control flow graph of the method afterwards.
+   */
+  ControlFlowGraph run() {
+    if (graph.loops.isEmpty()) return graph;
+
+    boolean added = false;
+    for (ControlFlowGraph.Loop loop : graph.loops) {
+      if (!graph.addPreheader(loop)) continue;
+      preheadersAdded++;
+      added = true;
+    }
+    if (added) graph = new ControlFlowGraph(method);
+
+    liveness = new LivenessAnalysis(graph);
+    int registers = liveness.registers;
+    defBlock = new int[registers];
+    defStamp = new int[registers];
+    hoistedStamp = new int[registers];
+
+    for (ControlFlowGraph.Loop loop : graph.loops) {
+      BasicBlock preheader = graph.preheaderOf(loop);
+      if (preheader != null) hoist(loop, preheader);
+    }
+    return graph;
+  }
+
+  private void hoist(ControlFlowGraph.Loop loop, BasicBlock preheader) {
+    stamp++;
+    hasCall = false;
+    storesThroughRegisters = false;
+    storedSymbols.clear();
+    List<Integer> exits = new ArrayList<>();
+    for (int b = loop.body.nextSetBit(0); b >= 0; b = loop.body.nextSetBit(b + 1)) {
+      int block = b;
+      for (Instruction instruction : graph.blocks.get(b).instructions) {
+        liveness.forEachDef(instruction, bit -> {
+          if (bit >= liveness.registers) return;
+          if (defStamp[bit] != stamp) {
+            defStamp[bit] = stamp;
+            defBlock[bit] = block;
+          }
+          else if (defBlock[bit] != block) defBlock[bit] = -1;
+        });
+        noteStore(instruction);
+      }
+      for (int s : graph.successors[b]) {
+        if (!loop.body.get(s)) {
+          exits.add(b);
+          break;
+        }
+      }
+    }
+
+    long[] headerLiveIn = liveness.liveIn[loop.header];
+    boolean flagsIntoHeader = LivenessAnalysis.get(headerLiveIn, liveness.flags);
+    List<Instruction> moved = new ArrayList<>();
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int b = loop.body.nextSetBit(0); b >= 0; b = loop.body.nextSetBit(b + 1)) {
+        boolean mayFault = false;
+        for (int exit : exits) mayFault |= !graph.dominates(b, exit);
+        changed |= hoistFrom(b, headerLiveIn, flagsIntoHeader, mayFault, moved);
+      }
+    }
+    if (moved.isEmpty()) return;
+
+    List<Instruction> instructions = preheader.instructions;
+    int at = instructions.size();
+    if (at > 0 && instructions.get(at - 1).opcode == Opcode.JMP) at--;
+    instructions.addAll(at, moved);
+    hoisted += moved.size();
+  }
+
+  /**
+   * Hoists, from one block of the loop, the writes of every register that can be.
+   * @param mayFault  Whether the block can be skipped on the way out of the loop, so that a load
+   *                  in it may be of an address that is only valid when the block runs.
+   * @param moved     The instructions to be put in the preheader, added to in order.
+   * @return          Whether anything was hoisted.
+   */
+  private boolean hoistFrom(int b, long[] headerLiveIn, boolean flagsIntoHeader,
+                            boolean mayFault, List<Instruction> moved) {
+    List<Instruction> instructions = graph.blocks.get(b).instructions;
+    int size = instructions.size();
+
+    // Whether the flags are read after each instruction, before something sets them again.
+    boolean[] flagsLive = new boolean[size];
+    boolean[] live = { LivenessAnalysis.get(liveness.liveOut[b], liveness.flags) };
+    for (int i = size - 1; i >= 0; i--) {
+      flagsLive[i] = live[0];
+      Instruction instruction = instructions.get(i);
+      liveness.forEachDef(instruction, bit -> { if (bit == liveness.flags) live[0] = false; });
+      liveness.forEachUse(instruction, bit -> { if (bit == liveness.flags) live[0] = true; });
+    }
+
+    boolean[] removed = new boolean[size];
+    boolean any = false;
+    for (int i = 0; i < size; i++) {
+      int d = writtenRegister(instructions.get(i));
+      if (d < 0 || removed[i] || defStamp[d] != stamp || defBlock[d] != b
+          || hoistedStamp[d] == stamp || LivenessAnalysis.get(headerLiveIn, d))
+        continue;
+
+      if (!isHoistable(instructions, i, d, flagsLive, flagsIntoHeader, mayFault, removed)) {
+        // Its writes stay in the loop, so nothing reading it can be hoisted either.
+        defBlock[d] = -1;
+        continue;
+      }
+      for (int j = i; j < size; j++) {
+        if (removed[j] || writtenRegister(instructions.get(j)) != d) continue;
+        moved.add(instructions.get(j));
+        removed[j] = true;
+      }
+      hoistedStamp[d] = stamp;
+      any = true;
+    }
+    if (!any) return false;
+
+    int kept = 0;
+    for (int i = 0; i < size; i++) if (!removed[i]) instructions.set(kept++, instructions.get(i));
+    instructions.subList(kept, size).clear();
+    return true;
+  }
+
+  /**
+   * @param first The first instruction of the block that writes d.
+   * @return      Whether every write of d in the block can be hoisted together.
+   */
+  private boolean isHoistable(List<Instruction> instructions, int first, int d, boolean[] flagsLive,
+                              boolean flagsIntoHeader, boolean mayFault, boolean[] removed) {
+    Opcode opcode = instructions.get(first).opcode;
+    if (opcode != Opcode.MOV && opcode != Opcode.LEA) return false;
+
+    int last = first;
+    for (int j = first; j < instructions.size(); j++) {
+      if (removed[j]) continue;
+      Instruction instruction = instructions.get(j);
+      if (writtenRegister(instruction) == d) {
+        switch (instruction.opcode) {
+          case ADD: case SUB: case IMUL:
+            if (flagsLive[j] || flagsIntoHeader) return false;
+            break;
+          case MOV: case LEA:
+            break;
+          default:
+            return false;
+        }
+        if (!isInvariant(instruction.source, d, mayFault)) return false;
+        last = j;
+      }
+    }
+
+    // Between the writes, d may only be read by them.
+    for (int j = first + 1; j < last; j++) {
+      if (removed[j] || writtenRegister(instructions.get(j)) == d) continue;
+      boolean[] reads = { false };
+      liveness.forEachUse(instructions.get(j), bit -> { if (bit == d) reads[0] = true; });
+      if (reads[0]) return false;
+    }
+    return true;
+  }
+
+  // Whether an operand has the same value on every iteration of the loop being worked on.
+  private boolean isInvariant(Operand operand, int d, boolean mayFault) {
+    if (operand instanceof Operand.Immediate || operand instanceof Operand.Label) return true;
+    if (operand instanceof Operand.VirtualRegister) {
+      int r = ((Operand.VirtualRegister) operand).id;
+      return r == d || defStamp[r] != stamp || hoistedStamp[r] == stamp;
+    }
+    if (operand instanceof Operand.Memory) {
+      Operand.Memory memory = (Operand.Memory) operand;
+      if (hasCall || storesThroughRegisters) return false;
+      if (memory.symbol != null) return !storedSymbols.contains(memory.symbol.name);
+      return !mayFault && memory.base instanceof Operand.VirtualRegister
+             && isInvariant(memory.base, -1, false);
+    }
+    return false;
+  }
+
+  private void noteStore(Instruction instruction) {
+    if (instruction.opcode == Opcode.CALL) hasCall = true;
+    if (!(instruction.destination instanceof Operand.Memory)) return;
+    switch (instruction.opcode) {
+      case MOV: case ADD: case SUB: case IMUL:
+        Operand.Memory memory = (Operand.Memory) instruction.destination;
+        if (memory.symbol != null) storedSymbols.add(memory.symbol.name);
+        else                       storesThroughRegisters = true;
+        break;
+      default:
+        break;
+    }
+  }
+
+  // The virtual register an instruction writes, or -1.
+  private static int writtenRegister(Instruction instruction) {
+    switch (instruction.opcode) {
+      case MOV: case LEA: case ADD: case SUB: case IMUL:
+      case CMOVE: case CMOVNE: case CMOVG: case CMOVL: case CMOVGE: case CMOVLE:
+        return instruction.destination instanceof Operand.VirtualRegister
+               ? ((Operand.VirtualRegister) instruction.destination).id : -1;
+      default:
+        return -1;
+    }
+  }
+}
@@ -26,7 +26,6 @@
   TODO:  Code generator should emit code to perform these checks:
   --      1. The subscript of an array must be in bounds. (BOUNDS command)
   --      2. Control must not fall off the end of a method that is declared to return a result.
-  --     NOT (!) and urany MINUS (-x) need implementing
 */
 
 package decaf;
@@ -38,82 +37,139 @@ import org.antlr.v4.runtime.*;
 import java.util.*;
 import java.io.*;
 
+import static decaf.Operand.PhysicalRegister.*;
+
 class LowLevelIRBuilder extends DecafParserBaseListener {
-  public LowLevelIRBuilder() {
-    charList = new ArrayList<>();
-    for(char alphabet = 'a'; alphabet <= 'z'; alphabet++) charList.add(alphabet);
-    charListItr = charList.listIterator();
-    variableRegisterMap = new HashMap<>();
+  public LowLevelIRBuilder(ParseTreeProperty<String> exprValues) { this(exprValues, null); }
+
+  /**
+   * @param exprValues  The values of the literals, found by the SemanticRuleManager.
+   * @param methodBuilt Called with each method once it has been built, or null. Nothing is added
+   *                    to a method's blocks after this, so they can be printed and let go of.
+   */
+  public LowLevelIRBuilder(ParseTreeProperty<String> exprValues,
+                           java.util.function.Consumer<MethodIR> methodBuilt) {
+    this.exprValues = exprValues;
+    this.methodBuilt = methodBuilt;
+    globals = new HashMap<>();
+    variableRegisterMap = globals;
+    methodTypes = new HashMap<>();
     exprResultRegisterMap = new ParseTreeProperty<>();
-    blockIndexes = new ParseTreeProperty<>();
-    blockIndexes_2 = new ParseTreeProperty<>();
+    blocksBefore = new ParseTreeProperty<>();
+    conditions = new ParseTreeProperty<>();
+    loops = new ArrayDeque<>();
   }
 
-  private int registerCounter; 
+  private int registersIssued;
+  private MethodIR method;
   private int ifLabelCounter;
   private int forLabelCounter;
-  private List<Character> charList;
-  private ListIterator charListItr;
-  private Map<String, String> variableRegisterMap;
-  private ParseTreeProperty<String> exprResultRegisterMap; 
-  private ParseTreeProperty<Integer> blockIndexes, blockIndexes_2;
-
-  // This holds a list of ThreeCodeTuples in order that they are encountered in the tree, therefore,
-  // also the order in which they appear in the Decaf source code. Each callback will be responsible
-  // for adding however many ThreeCodeTuple objects to the InstructionSet that are required to do 
-  // the task it's designed to do. After complete traversal of the ParseTree, a list of instructions
-  // will represent the sequence of low level instructions to be generated.
+  private int conditionLabelCounter;
+  private Map<String, Operand> globals, variableRegisterMap;
+  private Map<String, Symbol.Type> methodTypes;
+  private ParseTreeProperty<Operand> exprResultRegisterMap; 
+  private ParseTreeProperty<BasicBlock> blocksBefore;
+  private ParseTreeProperty<Condition> conditions;
+  private Deque<Loop> loops;
+  private ParseTreeProperty<String> exprValues;
+  private java.util.function.Consumer<MethodIR> methodBuilt;
+  // The label of each string literal in the data segment, by its text.
+  private Map<String, Operand.Label> strings = new HashMap<>();
+
+  // This holds the basic blocks of Instructions in the order that they are encountered in the tree,
+  // therefore, also the order in which they appear in the Decaf source code. Each callback will be
+  // responsible for adding however many Instruction objects to the InstructionSet that are required
+  // to do the task it's designed to do. After complete traversal of the ParseTree, the
+  // blocks will represent the sequence of low level instructions to be generated.
   InstructionSet programInstructionSet = new InstructionSet();
 
-  ArrayList<ThreeCodeTuple> dataSegment = new ArrayList<>();
+  ArrayList<Instruction> dataSegment = new ArrayList<>();
 
   /**
-   * Adds the label denoting the start of a new method so as to allows jumps later.
+   * Adds the label denoting the start of a new method so as to allows jumps later. Each method
+   * numbers its own registers from 0, and sees the globals and its own variables only. Parameters
+   * are moved out of the registers they are passed in, or off the stack after the sixth, into
+   * registers of their own.
    * @param ctx The MethodDeclContext object defined in DecafParser. Generated at compile time.
    */
   public void enterMethodDecl(DecafParser.MethodDeclContext ctx) {
     String methodName = ctx.methodName().IDENTIFIER().getText();
-    programInstructionSet.addInstruction(labelTuple(methodName + ":"));
+    method = new MethodIR(methodName);
+    programInstructionSet.startMethod(method);
+    variableRegisterMap = new HashMap<>(globals);
+    // Nothing refers to another method's expressions or blocks, so each method starts these afresh
+    // and only one method's worth is ever held.
+    exprResultRegisterMap = new ParseTreeProperty<>();
+    blocksBefore = new ParseTreeProperty<>();
+    conditions = new ParseTreeProperty<>();
+
+    // The return type is the first type, unless the method is void.
+    int firstParameter = ctx.type().size() - ctx.IDENTIFIER().size();
+    methodTypes.put(methodName,
+      firstParameter == 0 ? Symbol.Type.VOID : typeOf(ctx.type(0)));
+
+    Operand.PhysicalRegister[] arguments = Operand.PhysicalRegister.ARGUMENTS;
+    for (int i = 0; i < ctx.IDENTIFIER().size(); i++) {
+      Operand r0 = nextRegister(typeOf(ctx.type(firstParameter + i)));
+      Operand argument = i < arguments.length
+        ? arguments[i]
+        : new Operand.Memory(RBP, 16 + 8 * (i - arguments.length));
+      programInstructionSet.addInstruction(move(argument, r0));
+      variableRegisterMap.put(ctx.IDENTIFIER(i).getText(), r0);
+    }
   }
 
   /**
-   * Adds a return statement at the end of every method (except main) so that control returns to the
-   * point on which it was called after the method body executes.
+   * Adds a return statement at the end of every method so that control returns to the point on
+   * which it was called after the method body executes; main returns to the C runtime, which
+   * called it. The method is then complete, and is handed on to be printed.
    * @param ctx The MethodDeclContext object defined in DecafParser. Generated at compile time.
    */
   public void exitMethodDecl(DecafParser.MethodDeclContext ctx) {
-    if (!ctx.methodName().IDENTIFIER().getText().equals("main"))
-      programInstructionSet.addInstruction(returnTuple());
+    programInstructionSet.addReturn(ret());
+
+    method.last = programInstructionSet.current();
+    if (methodBuilt != null) methodBuilt.accept(method);
   }
 
   /**
-   * Calculates the index of the instruction set of where the block exits so that else block code
-   * can be inserted in the correct order.
+   * Starts a new basic block for the body of an IF or FOR statement. The instructions that set up
+   * the loop can only be made once the whole statement has been walked, so the block before the
+   * body is remembered; they are appended to the end of it when the statement exits, rather than
+   * inserted into the middle of one long list of instructions. The blocks of an IF are the ones its
+   * condition jumps to.
    * @param ctx The BlockContext object defined in DecafParser. Generated at compile time.
    */
   public void enterBlock(DecafParser.BlockContext ctx) {
-    blockIndexes.put(ctx, programInstructionSet.instructions.size());
-  }
-  
-  /**
-   * This method is required to calculate where to insert jump to else statements when there is no
-   * else block.
-   * @param ctx The BlockContext object defined in DecafParser. Generated at compile time.
-   */
-  public void exitBlock(DecafParser.BlockContext ctx) {
-    blockIndexes_2.put(ctx, programInstructionSet.instructions.size());
+    if (!(ctx.getParent() instanceof DecafParser.StatementContext)) return;
+    DecafParser.StatementContext statement = (DecafParser.StatementContext) ctx.getParent();
+
+    blocksBefore.put(ctx, programInstructionSet.current());
+    if      (statement.FOR() != null) programInstructionSet.startBlock(loops.peek().start);
+    else if (statement.IF()  != null) {
+      Condition condition = conditions.get(statement.expr(0));
+      programInstructionSet.startBlock(ctx == statement.block(0)
+        ? condition.whenTrue : condition.whenFalse);
+    }
+    else                              programInstructionSet.startBlock(new BasicBlock(null));
   }
 
   /**
    * Adds each location to the register map so the current temporary register holding a variable is
-   * mapped to the name of the variable.
+   * mapped to the name of the variable. The condition of an IF is given the blocks it jumps to, the
+   * body and the else block, which are numbered when the statement exits.
    * @param ctx The StatementContext object defined in DecafParser. Generated at compile time.
    */
   public void enterStatement(DecafParser.StatementContext ctx) {
     if (ctx.FOR() != null) {
       String locationName = ctx.IDENTIFIER().getText();
-      String r0 = nextRegister();
+      Operand r0 = nextRegister(Symbol.Type.INT);
       variableRegisterMap.put(locationName, r0);
+      loops.push(new Loop());
+    }
+    else if (ctx.IF() != null) {
+      conditions.put(ctx.expr(0), new Condition(new BasicBlock(new Operand.Label()),
+          new BasicBlock(new Operand.Label()), true));
     }
   }
 
@@ -125,115 +181,100 @@ class LowLevelIRBuilder extends DecafParserBaseListener {
     if (ctx.assignOp() != null) {
 
       String locationName = ctx.location().IDENTIFIER().getText();
-      String locationReg = variableRegisterMap.get(locationName);
-      String v0 = getExprValue(ctx.expr(0));
+      Operand locationReg = variableRegisterMap.get(locationName);
+      Operand v0 = getExprValue(ctx.expr(0));
 
       if      (ctx.assignOp().ASSIGNMENTP() != null) 
-        programInstructionSet.addInstruction(additionTuple(v0, locationReg));
+        programInstructionSet.addInstruction(addition(inRegisterIfMemory(v0, locationReg),
+          locationReg));
       else if (ctx.assignOp().ASSIGNMENTS() != null)
-        programInstructionSet.addInstruction(subtractionTuple(v0, locationReg));
+        programInstructionSet.addInstruction(subtraction(inRegisterIfMemory(v0, locationReg),
+          locationReg));
       else if (ctx.location().LBRACE() != null && ctx.location().RBRACE() != null) { // lhs array
-        String arrayIndex = getExprValue(ctx.location().expr());
+        Operand arrayIndex = getExprValue(ctx.location().expr());
 
-        addArrayIndexAddressToPointer("array_" + locationName, arrayIndex);
+        Operand pointer = addArrayIndexAddressToPointer("array_" + locationName, arrayIndex);
 
-        programInstructionSet.addInstruction(moveTuple(v0, "(%rbp)"));
+        programInstructionSet.addInstruction(move(v0, new Operand.Memory(pointer)));
       }
       else if (ctx.expr(0).location() != null) {
         // rhs array
         if (ctx.expr(0).location().LBRACE() != null && ctx.expr(0).location().RBRACE() != null) {
-          String arrayIndex = getExprValue(ctx.expr(0).location().expr());
+          Operand arrayIndex = getExprValue(ctx.expr(0).location().expr());
           locationName = ctx.expr(0).location().IDENTIFIER().getText();
 
-          addArrayIndexAddressToPointer("array_" + locationName, arrayIndex);
+          Operand pointer = addArrayIndexAddressToPointer("array_" + locationName, arrayIndex);
 
-          programInstructionSet.addInstruction(moveTuple("(%rbp)", locationReg));
+          programInstructionSet.addInstruction(move(
+            inRegisterIfMemory(new Operand.Memory(pointer), locationReg), locationReg));
         }
       }
       else
-        programInstructionSet.addInstruction(moveTuple(v0, locationReg));
+        programInstructionSet.addInstruction(move(inRegisterIfMemory(v0, locationReg), locationReg));
 
     }
     else if (ctx.RETURN() != null) {
-      String v0 = getExprValue(ctx.expr(0));
-      programInstructionSet.addInstruction(moveTuple(v0, "%rax"));
+      // Whatever follows a return in its block can't be reached, so it gets a block of its own.
+      if (ctx.expr(0) != null)
+        programInstructionSet.addInstruction(move(getExprValue(ctx.expr(0)), RAX));
+      programInstructionSet.addReturn(ret());
+      programInstructionSet.startBlock(new BasicBlock(null));
     }
     else if (ctx.FOR() != null) {
       String locationName = ctx.IDENTIFIER().getText();
-      String r0 = variableRegisterMap.get(locationName);
-      String r1 = nextRegister();      
+      Operand r0 = variableRegisterMap.get(locationName);
+      Operand r1 = nextRegister(Symbol.Type.INT);
       
-      String v0 = getExprValue(ctx.expr(0));
-      String v1 = getExprValue(ctx.expr(1));
+      Operand v0 = getExprValue(ctx.expr(0));
+      Operand v1 = getExprValue(ctx.expr(1));
       
       String currentForNumber = nextForLabelNumber();
-      int forBlock = blockIndexes.get(ctx.block(0));
-      ArrayList<ThreeCodeTuple> tmp = new ArrayList<>();
-
-      // Creates a temporary sub list of instructions that will be inserted into the list at the
-      // index of the FOR-loop block
-      tmp.add(moveTuple(v0, r0));
-      tmp.add(moveTuple(v1, r1));
-      tmp.add(labelTuple("startfor_" + currentForNumber + ":"));
+      Loop loop = loops.pop();
+      loop.start.label.name = "startfor_" + currentForNumber;
+      loop.end.label.name = "endfor_" + currentForNumber;
+
+      // The loop variables are set up at the end of the block before the body, which is followed by
+      // the block labelled startfor.
+      BasicBlock header = blocksBefore.get(ctx.block(0));
+      programInstructionSet.addInstruction(header, move(v0, r0));
+      programInstructionSet.addInstruction(header, move(v1, r1));
       
-      programInstructionSet.addMultipleInstructions(tmp, forBlock);
-      programInstructionSet.addInstruction(additionTuple("$1", r0));
-      programInstructionSet.addInstruction(cmpTuple(r0, r1));
-      programInstructionSet.addInstruction(jumpNotEqualTuple("startfor_" + currentForNumber));
-      programInstructionSet.addInstruction(labelTuple("endfor_" + currentForNumber + ":"));
+      programInstructionSet.addInstruction(addition(Operand.Immediate.of(1), r0));
+      programInstructionSet.addInstruction(cmp(r0, r1));
+      programInstructionSet.addJump(jumpNotEqual(loop.start.label), loop.start);
+      programInstructionSet.startBlock(loop.end);
     }
     else if (ctx.BREAK() != null) {
-      // The break always hits before the forLabelCounter is incremented so 1 is added to balance.
-      programInstructionSet.addInstruction(
-        jumpTuple("endfor_" + Integer.toString(forLabelCounter + 1)));
+      Loop loop = loops.peek();
+      programInstructionSet.addJump(jump(loop.end.label), loop.end);
     }
     else if (ctx.CONTINUE() != null) {
-      // The continue always hits before the forLabelCounter is incremented so 1 is added to balance
-      programInstructionSet.addInstruction(
-        jumpTuple("startfor_" + Integer.toString(forLabelCounter + 1)));
+      Loop loop = loops.peek();
+      programInstructionSet.addJump(jump(loop.start.label), loop.start);
     }
     else if (ctx.IF() != null) {
       String currentIfElseNumber = nextIfLabelNumber();
-      int elseBlockOffset = 0;
-    
-      String v0 = getExprValue(ctx.expr(0));
-      String r0 = nextRegister();
-      ArrayList<ThreeCodeTuple> tmp = new ArrayList<>();
-
-      tmp.add(moveTuple(v0, r0));
-      tmp.add(cmpTuple("$0", r0));
-
-      // Always need a jump-to-else jump regardless of whether there is an else block or not. This 
-      // stops code being executed under the condition that the 'IF expression' evaluated to false.
-      // Technically, this is a jump-to-endif as there is no 'else' block, however, as label names
-      // are arbitrary, the point is moot. 
-      tmp.add(jumpEqualTuple("else_" + currentIfElseNumber));
-      tmp.add(labelTuple("if_" + currentIfElseNumber + ":"));
-
-      Integer ifBlock = blockIndexes.get(ctx.block(0));
-      programInstructionSet.addMultipleInstructions(tmp, ifBlock);
-
-      elseBlockOffset = tmp.size();
-      Integer elseBlock;
-      try {
-        elseBlock = blockIndexes.get(ctx.block(1)) + elseBlockOffset;
-      } catch (NullPointerException npe) {
-        elseBlock = blockIndexes_2.get(ctx.block(0)) + elseBlockOffset;
-      }
-      
-      programInstructionSet.addInstruction(
-        labelTuple("else_" + currentIfElseNumber + ":"), elseBlock);
 
+      // The condition has already jumped to the else block when it is false, whether or not there
+      // is an else. Technically, that is a jump-to-endif when there isn't, however, as label names
+      // are arbitrary, the point is moot.
+      Condition condition = conditions.get(ctx.expr(0));
+      condition.whenTrue.label.name = "if_" + currentIfElseNumber;
+      condition.whenFalse.label.name = "else_" + currentIfElseNumber;
+
+      // With an else block, the else label starts that block and a new block labelled endif
+      // follows it. Without one, the else label starts the block that follows the IF.
       if (ctx.ELSE() != null) {
         // Jump to endif always comes just before the else block.
-        programInstructionSet.addInstruction(
-            jumpTuple("endif_" + currentIfElseNumber), elseBlock);
-        programInstructionSet.addInstruction(labelTuple("endif_" + currentIfElseNumber + ":"));
+        BasicBlock endifBlock = new BasicBlock(new Operand.Label("endif_" + currentIfElseNumber));
+        programInstructionSet.addJump(blocksBefore.get(ctx.block(1)), jump(endifBlock.label),
+            endifBlock);
+        programInstructionSet.startBlock(endifBlock);
       }
+      else
+        programInstructionSet.startBlock(condition.whenFalse);
     }
-    else if (ctx.methodCall() != null) {
-      if (ctx.methodCall().CALLOUT() != null) handleCallout(ctx.methodCall());
-    }
+    else if (ctx.methodCall() != null) handleCall(ctx.methodCall());
   }
 
   /**
@@ -241,28 +282,31 @@ class LowLevelIRBuilder extends DecafParserBaseListener {
    * @param ctx The VarDeclContext object defined in DecafParser. Generated at compile time.
    */
   public void enterVarDecl(DecafParser.VarDeclContext ctx) {
+    Symbol.Type type = typeOf(ctx.type());
     ListIterator identifierListItr = ctx.IDENTIFIER().listIterator();
     while (identifierListItr.hasNext()) {
       String identifierName = ( (TerminalNode) identifierListItr.next() ).getText();
-      String r0 = nextRegister();
-      programInstructionSet.addInstruction(moveTuple("$0", r0)); // <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<< TODO: Potentially more efficient to use XOR with both operands as the same address than MOV
+      Operand r0 = nextRegister(type);
+      programInstructionSet.addInstruction(move(Operand.Immediate.of(0), r0)); // <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<< TODO: Potentially more efficient to use XOR with both operands as the same address than MOV
       variableRegisterMap.put(identifierName, r0);
     }
   }
 
   /**
-   * Creates a new register for each global variable, initialises register to 0 and assigns the
-   * location to the variable map.
+   * Declares space in the data segment for each global variable, which starts as 0, and assigns its
+   * memory to the variable map. Registers belong to a single method, so globals are kept in memory.
+   * Each gets as many bytes as a register of its type, as every load and store of it is a full move.
    * For arrays, declares space in memory and adds a label to access it in other parts of the code.
    * @param ctx The FieldDeclContext object defined in DecafParser. Generated at compile time.
    */
   public void enterFieldDecl(DecafParser.FieldDeclContext ctx) {
+    int width = MethodIR.widthOf(typeOf(ctx.type()));
     ListIterator identifierListItr = ctx.IDENTIFIER().listIterator();
     while (identifierListItr.hasNext()) {
       String identifierName = ( (TerminalNode) identifierListItr.next() ).getText();
-      String r0 = nextRegister();
-      programInstructionSet.addInstruction(moveTuple("$0", r0));
-      variableRegisterMap.put(identifierName, r0);
+      Operand.Label label = new Operand.Label("global_" + identifierName);
+      dataSegment.add(new Instruction(Opcode.SPACE, label, Operand.Immediate.of(width)));
+      globals.put(identifierName, new Operand.Memory(label));
     }
 
     ListIterator arrayidentifierListItr = ctx.arrayDecl().listIterator();
@@ -271,146 +315,276 @@ class LowLevelIRBuilder extends DecafParserBaseListener {
         (DecafParser.ArrayDeclContext) arrayidentifierListItr.next();      
       String identifierName = arrayDecl.IDENTIFIER().getText();    
       int arraySize = Integer.parseInt(arrayDecl.INTLITERAL().getText());
-      dataSegment.add(arrayDeclTuple("array_" + identifierName + ":", arraySize));
+      dataSegment.add(arrayDecl("array_" + identifierName, arraySize));
     }
   }
 
   /**
    * Calculates the correct values of certain literals and adds those to the expr results map that
    * keeps track of expression evaluation results. I.e. if 'true' is written in the source code then
-   * '1' is placed in a register and mapped to that token.
+   * '1' is placed in a register and mapped to that token. AND, OR and NOT pass the blocks they jump
+   * to down to their operands, before the operands are walked.
    * @param ctx The ExprContext object defined in DecafParser. Generated at compile time.
    */
   public void enterExpr(DecafParser.ExprContext ctx) {
-    if (ctx.methodCall() != null) {
-      if (ctx.methodCall().CALLOUT() != null) {
-        handleCallout(ctx.methodCall());
-        exprResultRegisterMap.put(ctx, "%rax");
-      }
-      else { 
-        String r0 = nextRegister();
-        programInstructionSet.addInstruction(
-          callTuple(ctx.methodCall().methodName().IDENTIFIER().getText()));
-        programInstructionSet.addInstruction(moveTuple("%rax", r0));
-        exprResultRegisterMap.put(ctx, r0);
-      }
+    Condition condition = conditions.get(ctx);
+    if (condition == null && isLogical(ctx)) {
+      // The outermost AND, OR or NOT of a value: it is false unless the code reaches the block that
+      // sets it to true, which is laid out after all of its operands.
+      String currentConditionNumber = nextConditionLabelNumber();
+      Operand r0 = nextRegister(Symbol.Type.BOOLEAN);
+      programInstructionSet.addInstruction(move(Operand.Immediate.of(0), r0));
+      exprResultRegisterMap.put(ctx, r0);
+      condition = new Condition(new BasicBlock(new Operand.Label("true_" + currentConditionNumber)),
+          new BasicBlock(new Operand.Label("endcond_" + currentConditionNumber)), true);
+      conditions.put(ctx, condition);
     }
-    else if (ctx.BOOLEANLITERAL() != null) {
-      String v0 = getExprValue(ctx);
-      String r0 = nextRegister();
+    if (condition != null) passConditionDown(ctx, condition);
+
+    if (ctx.BOOLEANLITERAL() != null) {
+      String v0 = exprValues.get(ctx);
+      Operand r0 = nextRegister(Symbol.Type.BOOLEAN);
 
-      if      (v0.equals("true"))   programInstructionSet.addInstruction(moveTuple("$1", r0));
-      else if (v0.equals("false"))  programInstructionSet.addInstruction(moveTuple("$0", r0));
+      if      (v0.equals("true"))
+        programInstructionSet.addInstruction(move(Operand.Immediate.of(1), r0));
+      else if (v0.equals("false"))
+        programInstructionSet.addInstruction(move(Operand.Immediate.of(0), r0));
         
       exprResultRegisterMap.put(ctx, r0);
     }
     else if (ctx.CHARLITERAL() != null) {
-      String v0 = getExprValue(ctx);
-      String r0 = nextRegister();
+      String v0 = exprValues.get(ctx);
+      Operand r0 = nextRegister(Symbol.Type.INT);
       int ascii = (int) v0.charAt(0);
 
-      programInstructionSet.addInstruction(moveTuple("$" + Integer.toString(ascii), r0));
+      programInstructionSet.addInstruction(move(Operand.Immediate.of(ascii), r0));
       exprResultRegisterMap.put(ctx, r0);
     }
   }
 
   /**
-   * Adds the required sequence of ThreeCodeTuple objects to the InstructionSet that is necessary to
-   * achieve the required arithmetic or boolean logic.
+   * Adds the required sequence of Instruction objects to the InstructionSet that is necessary to
+   * achieve the required arithmetic or boolean logic. AND, OR and NOT have been worked out by the
+   * jumps of their operands, so they only lay out the blocks that follow them.
    * @param ctx The ExprContext object defined in DecafParser. Generated at compile time.
    */
   public void exitExpr(DecafParser.ExprContext ctx) {
-    String v0 = getExprValue(ctx.expr(0));
-    String v1 = getExprValue(ctx.expr(1));
+    Condition condition = conditions.get(ctx);
+    if (isLogical(ctx)) {
+      endCondition(ctx, condition);
+      return;
+    }
+
+    Operand v0 = getExprValue(ctx.expr(0));
+    Operand v1 = getExprValue(ctx.expr(1));
 
-    String r0 = nextRegister();
-    String r1 = nextRegister();
+    // Unary minus, -x, is worked out as 0 - x.
+    if (ctx.MINUS() != null && ctx.expr(1) == null) {
+      v1 = v0;
+      v0 = Operand.Immediate.of(0);
+    }
+
+    // Registers are only taken by the operations that need them, so none are numbered but not used.
+    Operand r0, r1;
 
-    if (ExpressionOperationRules.arithmeticReturnsInteger(ctx)) {
-      if (ctx.DIVISION() != null) {
-        programInstructionSet.addInstruction(moveTuple(v0, "%rdx"));
-        programInstructionSet.addInstruction(moveTuple("$0", "%rax"));
-        programInstructionSet.addInstruction(divisionTuple(v1));
-        programInstructionSet.addInstruction(moveTuple("%rax", r0));
+    if (ctx.methodCall() != null) {
+      // The arguments have all been worked out by now, so the call can be made. The result is
+      // copied out of %rax, which the next call would overwrite.
+      handleCall(ctx.methodCall());
+      String methodName = ctx.methodCall().CALLOUT() != null
+        ? null : ctx.methodCall().methodName().IDENTIFIER().getText();
+      r0 = nextRegister(methodTypes.getOrDefault(methodName, Symbol.Type.INT));
+      programInstructionSet.addInstruction(move(RAX, r0));
+      exprResultRegisterMap.put(ctx, r0);
+    }
+    else if (ExpressionOperationRules.arithmeticReturnsInteger(ctx)) {
+      r0 = nextRegister(Symbol.Type.INT);
+      if (ctx.DIVISION() != null || ctx.MODULO() != null) {
+        // idiv divides %rdx:%rax, so the dividend is sign extended into %rdx; the quotient is left
+        // in %rax and the remainder in %rdx. The divisor can't be an immediate.
+        Operand divisor = v1;
+        if (divisor instanceof Operand.Immediate) {
+          divisor = nextRegister(Symbol.Type.INT);
+          programInstructionSet.addInstruction(move(v1, divisor));
+        }
+        programInstructionSet.addInstruction(move(v0, RAX));
+        programInstructionSet.addInstruction(signExtend());
+        programInstructionSet.addInstruction(division(divisor));
+        programInstructionSet.addInstruction(move(ctx.DIVISION() != null ? RAX : RDX, r0));
 
         exprResultRegisterMap.put(ctx, r0);
       } else {
-        programInstructionSet.addInstruction(moveTuple(v0, r0));
-        programInstructionSet.addInstruction(moveTuple(v1, r1));
+        r1 = nextRegister(Symbol.Type.INT);
+        programInstructionSet.addInstruction(move(v0, r0));
+        programInstructionSet.addInstruction(move(v1, r1));
         
+        // sub takes its source from its destination, so the left operand is the destination.
         if      (ctx.ADDITION() != null) 
-          programInstructionSet.addInstruction(additionTuple(r0, r1));
+          programInstructionSet.addInstruction(addition(r0, r1));
         else if (ctx.MINUS()    != null)
-          programInstructionSet.addInstruction(subtractionTuple(r0, r1));
+          programInstructionSet.addInstruction(subtraction(r1, r0));
         else if (ctx.MULTIPLY() != null)
-          programInstructionSet.addInstruction(multiplicationTuple(r0, r1));
+          programInstructionSet.addInstruction(multiplication(r0, r1));
 
-        exprResultRegisterMap.put(ctx, r1);
+        exprResultRegisterMap.put(ctx, ctx.MINUS() != null ? r0 : r1);
       }
     }
+    else if (ExpressionOperationRules.booleanBinaryOperations(ctx) && condition != null) {
+      // A comparison that is a condition jumps on the flags of its own cmp, rather than setting a
+      // register from them only to compare that with 0.
+      jumpOn(compare(v0, v1, comparisonJump(ctx)), condition);
+    }
     else if (ExpressionOperationRules.booleanBinaryOperations(ctx)) {
-      if (ExpressionOperationRules.equalityBinaryOperations(ctx)) {
-        programInstructionSet.addInstruction(cmpTuple(v0, v1));
+      // The register is set to 0, then moved a 1 on the condition. cmov can't take a constant, so
+      // the 1 is loaded into a register of its own, which nothing else reads.
+      r0 = nextRegister(Symbol.Type.BOOLEAN);
+      r1 = nextRegister(Symbol.Type.BOOLEAN);
+      Opcode whenTrue = compare(v0, v1, comparisonJump(ctx)).conditionalMove();
+      programInstructionSet.addInstruction(move(Operand.Immediate.of(0), r0));
+      programInstructionSet.addInstruction(move(Operand.Immediate.of(1), r1));
+      programInstructionSet.addInstruction(new Instruction(whenTrue, r1, r0));
+      exprResultRegisterMap.put(ctx, r0);
+    }
+    else if (ctx.LPAREN() != null && ctx.RPAREN() != null) {
+      Operand exprValue = getExprValue(ctx.expr(0));
+      exprResultRegisterMap.put(ctx, exprValue);
+    }
 
-        if      (ctx.EQUAL()    != null) {
-          programInstructionSet.addInstruction(moveEqualTuple("$1", r0));
-          programInstructionSet.addInstruction(moveNotEqualTuple("$0", r0));
-        }
-        else if (ctx.NOTEQUAL() != null) {
-          programInstructionSet.addInstruction(moveEqualTuple("$0", r0));
-          programInstructionSet.addInstruction(moveNotEqualTuple("$1", r0));
-        }
-        exprResultRegisterMap.put(ctx, r0);
-      }
-      else if (ExpressionOperationRules.conditionalBinaryOperation(ctx)) {
-        programInstructionSet.addInstruction(moveTuple(v0, r0));
-        programInstructionSet.addInstruction(moveTuple(v1, r1));
-        programInstructionSet.addInstruction(additionTuple(r0, r1));
-
-        if      (ctx.AND()  != null) {
-          // true bits are set to 1, so true && true = 1 + 1 would result in a 2.
-          programInstructionSet.addInstruction(moveTuple("$2", r0));          
-          programInstructionSet.addInstruction(cmpTuple(r1, r0));
-
-          programInstructionSet.addInstruction(moveEqualTuple("$1", r0));
-          programInstructionSet.addInstruction(moveNotEqualTuple("$0", r0));
-        }
-        else if (ctx.OR()   != null) {
-          // false bits are set to 0, so any addition with true bit would result in a non-zero int.
-          programInstructionSet.addInstruction(moveTuple("$0", r0));          
-          programInstructionSet.addInstruction(cmpTuple(r1, r0));
+    if (condition != null) endCondition(ctx, condition);
+  }
 
-          programInstructionSet.addInstruction(moveGreaterThanTuple("$1", r0));
-          programInstructionSet.addInstruction(moveEqualTuple("$0", r0));
-        }
-        exprResultRegisterMap.put(ctx, r0);
+  /**
+   * Jumping code[1] for AND, OR and NOT. Rather than working out both operands and combining them,
+   * each operand jumps straight to the block to run when the whole condition is true or when it is
+   * false, as soon as its own value decides which. a && b tests a first, and only goes on to the
+   * block that tests b if a is true; a || b only goes on to it if a is false; !a tests a with its
+   * blocks swapped. So the right operand, and any method it calls, is skipped when the left one
+   * decides the result.
+   * @param ctx       An AND, OR, NOT or bracketed condition, whose operands are about to be walked.
+   * @param condition The blocks it jumps to.
+   */
+  private void passConditionDown(DecafParser.ExprContext ctx, Condition condition) {
+    if (ExpressionOperationRules.conditionalBinaryOperation(ctx)) {
+      BasicBlock right = new BasicBlock(new Operand.Label("rhs_" + nextConditionLabelNumber()));
+      conditions.put(ctx.expr(0), ctx.AND() != null
+        ? new Condition(right, condition.whenFalse, true)
+        : new Condition(condition.whenTrue, right, false));
+      conditions.put(ctx.expr(1), condition);
+    }
+    else if (ctx.NOT() != null)
+      conditions.put(ctx.expr(0),
+        new Condition(condition.whenFalse, condition.whenTrue, !condition.trueFollows));
+    else if (ctx.LPAREN() != null && ctx.RPAREN() != null)
+      conditions.put(ctx.expr(0), condition);
+  }
+
+  /**
+   * Ends the code of a condition once it has been walked. Comparisons have jumped on their own
+   * flags; any other expression is tested against 0 and jumps to whichever block doesn't follow it.
+   * The outermost AND, OR or NOT then lays out the block setting its value to true, and then the
+   * block after it. A left operand lays out the block testing the right operand, which its code
+   * falls through to.
+   * @param ctx       The condition.
+   * @param condition The blocks it jumps to.
+   */
+  private void endCondition(DecafParser.ExprContext ctx, Condition condition) {
+    if (!ExpressionOperationRules.booleanBinaryOperations(ctx) && ctx.NOT() == null
+        && (ctx.LPAREN() == null || ctx.RPAREN() == null)) {
+      Operand v0 = getExprValue(ctx);
+      if (!(v0 instanceof Operand.VirtualRegister || v0 instanceof Operand.PhysicalRegister)) {
+        Operand r0 = nextRegister(Symbol.Type.BOOLEAN);
+        programInstructionSet.addInstruction(move(v0, r0));
+        v0 = r0;
       }
-      else if (ExpressionOperationRules.arithmeticReturnsBoolean(ctx)) {
-        programInstructionSet.addInstruction(cmpTuple(v0, v1));
+      programInstructionSet.addInstruction(cmp(Operand.Immediate.of(0), v0));
+      jumpOn(Opcode.JNE, condition);
+    }
 
-        if      (ctx.LESSTHAN()    != null) {
-          programInstructionSet.addInstruction(moveLessThanTuple("$1", r0));
-          programInstructionSet.addInstruction(moveGreaterThanEqualTuple("$0", r0));
-        }
-        else if (ctx.GREATERTHAN() != null) {
-          programInstructionSet.addInstruction(moveGreaterThanTuple("$1", r0));
-          programInstructionSet.addInstruction(moveLessThanEqualTuple("$0", r0));
-        }
-        else if (ctx.LSSTHNEQTO()  != null) {
-          programInstructionSet.addInstruction(moveLessThanEqualTuple("$1", r0));        
-          programInstructionSet.addInstruction(moveGreaterThanTuple("$0", r0));
-        }
-        else if (ctx.GRTTHNEQTO()  != null) {
-          programInstructionSet.addInstruction(moveGreaterThanEqualTuple("$1", r0));
-          programInstructionSet.addInstruction(moveLessThanTuple("$0", r0));
-        }
-        exprResultRegisterMap.put(ctx, r0);
-      }
+    Operand r0 = isLogical(ctx) ? exprResultRegisterMap.get(ctx) : null;
+    if (r0 != null) {
+      programInstructionSet.startBlock(condition.whenTrue);
+      programInstructionSet.addInstruction(move(Operand.Immediate.of(1), r0));
+      programInstructionSet.startBlock(condition.whenFalse);
     }
-    else if (ctx.LPAREN() != null && ctx.RPAREN() != null) {
-      String exprValue = getExprValue(ctx.expr(0));
-      exprResultRegisterMap.put(ctx, exprValue);
+
+    ParserRuleContext parent = ctx.getParent();
+    if (parent instanceof DecafParser.ExprContext
+        && ExpressionOperationRules.conditionalBinaryOperation((DecafParser.ExprContext) parent)
+        && ((DecafParser.ExprContext) parent).expr(0) == ctx)
+      programInstructionSet.startBlock(condition.trueFollows
+        ? condition.whenTrue : condition.whenFalse);
+  }
+
+  /**
+   * Jumps to whichever block of a condition doesn't follow its code, once the flags are set.
+   * @param whenTrue  The conditional jump that is taken when the condition is true.
+   * @param condition The blocks it jumps to.
+   */
+  private void jumpOn(Opcode whenTrue, Condition condition) {
+    if (condition.trueFollows)
+      programInstructionSet.addJump(new Instruction(whenTrue.negated(), condition.whenFalse.label),
+          condition.whenFalse);
+    else
+      programInstructionSet.addJump(new Instruction(whenTrue, condition.whenTrue.label),
+          condition.whenTrue);
+  }
+
+  /**
+   * Adds the cmp of a comparison. The flags are set from dest - src, so the left operand is the
+   * destination; but the destination can't be a constant, so where the left operand is one, as in
+   * 3 < x, the operands are swapped and the condition mirrored to match, x > 3. Where both are
+   * constants the left one is loaded into a register instead.
+   * @param  left      The left operand of the comparison.
+   * @param  right     The right operand.
+   * @param  whenTrue  The conditional jump taken when left compares to right as the comparison asks.
+   * @return Opcode    The conditional jump taken when the comparison is true, after the cmp added.
+   */
+  private Opcode compare(Operand left, Operand right, Opcode whenTrue) {
+    if (left instanceof Operand.Immediate && !(right instanceof Operand.Immediate)) {
+      programInstructionSet.addInstruction(cmp(left, right));
+      return whenTrue.mirrored();
+    }
+    if (left instanceof Operand.Immediate) {
+      Operand r0 = nextRegister(Symbol.Type.INT);
+      programInstructionSet.addInstruction(move(left, r0));
+      left = r0;
     }
+    programInstructionSet.addInstruction(cmp(inRegisterIfMemory(right, left), left));
+    return whenTrue;
+  }
+
+  /**
+   * @return The conditional jump that is taken when a comparison is true, after its cmp.
+   */
+  private static Opcode comparisonJump(DecafParser.ExprContext ctx) {
+    if      (ctx.EQUAL()       != null) return Opcode.JE;
+    else if (ctx.NOTEQUAL()    != null) return Opcode.JNE;
+    else if (ctx.LESSTHAN()    != null) return Opcode.JL;
+    else if (ctx.GREATERTHAN() != null) return Opcode.JG;
+    else if (ctx.LSSTHNEQTO()  != null) return Opcode.JLE;
+    else                                return Opcode.JGE;
+  }
+
+  /**
+   * No x86 instruction takes two memory operands, as when one global is assigned or compared to
+   * another, so the source is loaded into a register of its own first where the destination is
+   * also in memory.
+   * @param  src     The source of the instruction about to be added.
+   * @param  dest    Its destination.
+   * @return Operand The source, or the register it was loaded into.
+   */
+  private Operand inRegisterIfMemory(Operand src, Operand dest) {
+    if (!(src instanceof Operand.Memory && dest instanceof Operand.Memory)) return src;
+    Operand r0 = nextRegister(Symbol.Type.INT);
+    programInstructionSet.addInstruction(move(src, r0));
+    return r0;
+  }
+
+  /**
+   * @return Whether an expression is an AND, OR or NOT, which are worked out by jumping.
+   */
+  private static boolean isLogical(DecafParser.ExprContext ctx) {
+    return ExpressionOperationRules.conditionalBinaryOperation(ctx) || ctx.NOT() != null;
   }
 
   /**
@@ -418,7 +592,7 @@ class LowLevelIRBuilder extends DecafParserBaseListener {
    * @param ctx The ProgramContext object defined in DecafParser. Generated at compile time.
    */
   public void enterProgram(DecafParser.ProgramContext ctx) {
-    dataSegment.add(labelTuple(".data"));
+    dataSegment.add(new Instruction(Opcode.DATA));
   }
 
 
@@ -429,59 +603,98 @@ class LowLevelIRBuilder extends DecafParserBaseListener {
    */
   public void exitProgram(DecafParser.ProgramContext ctx) {
     // if the data segment has anything more than just it's label
-    if (dataSegment.size() > 1) programInstructionSet.addMultipleInstructions(dataSegment, -1);
+    if (dataSegment.size() > 1) {
+      programInstructionSet.startSection(new BasicBlock(null));
+      for (Instruction instruction : dataSegment) programInstructionSet.addInstruction(instruction);
+    }
   }
 
 
   /**
-   * Handles method calls to linked libraries.
+   * Calls a method, or a library function through a callout, once its arguments have been worked
+   * out. The first six arguments are passed in registers and the rest on the stack, pushed last
+   * first so that the seventh ends up nearest the return address, where the callee looks for it.
+   * The frame is kept 16 byte aligned at every call, so an odd number of pushes is padded by
+   * another 8 bytes, and both are taken off the stack again once the call returns.
    * @param ctx The MethodCallContext object defined in DecafParser. Generated at compile time.
    */
-  public void handleCallout(DecafParser.MethodCallContext ctx) {
-    String calloutName = ctx.STRINGLITERAL().getText();
-    ListIterator calloutArgsItr = ctx.calloutArg().listIterator();        
-    List<String> registerList =
-      Arrays.asList(new String[]{"%rdi","%rsi","%rdx","%rcx","%r8","%r9"});
-    ListIterator registerListItr = registerList.listIterator();
-
-    while (calloutArgsItr.hasNext() && registerListItr.hasNext()) {
-      DecafParser.CalloutArgContext arg = (DecafParser.CalloutArgContext) calloutArgsItr.next();
-      if (arg.STRINGLITERAL() != null)
-        programInstructionSet.addInstruction(moveTuple(
-          arg.STRINGLITERAL().getText(), (String) registerListItr.next()));
-      if (arg.expr()          != null) 
-        programInstructionSet.addInstruction(moveTuple(
-         getExprValue(arg.expr()), (String) registerListItr.next()));
+  public void handleCall(DecafParser.MethodCallContext ctx) {
+    List<Operand> arguments = new ArrayList<>();
+    if (ctx.CALLOUT() != null)
+      for (DecafParser.CalloutArgContext arg : ctx.calloutArg())
+        arguments.add(arg.STRINGLITERAL() != null
+          ? stringLiteral(arg.STRINGLITERAL().getText()) : getExprValue(arg.expr()));
+    else
+      for (DecafParser.ExprContext arg : ctx.expr()) arguments.add(getExprValue(arg));
+
+    Operand.PhysicalRegister[] registers = Operand.PhysicalRegister.ARGUMENTS;
+    int pushed = Math.max(0, arguments.size() - registers.length);
+    int padding = pushed % 2 == 0 ? 0 : 8;
+    if (padding > 0)
+      programInstructionSet.addInstruction(subtraction(Operand.Immediate.of(padding), RSP));
+    for (int i = arguments.size() - 1; i >= registers.length; i--) {
+      Operand argument = arguments.get(i);
+      if (argument instanceof Operand.Label) {
+        // push can't take an address, so it is loaded into a register first.
+        Operand r0 = nextRegister(Symbol.Type.INT);
+        programInstructionSet.addInstruction(loadEffectiveAddress((Operand.Label) argument, r0));
+        argument = r0;
+      }
+      programInstructionSet.addInstruction(push(argument));
     }
-
-    // Remaining args pushed to stack.
-    if (calloutArgsItr.hasNext()) {
-      DecafParser.CalloutArgContext arg = (DecafParser.CalloutArgContext) calloutArgsItr.next();
-      if (arg.STRINGLITERAL() != null)
-        programInstructionSet.addInstruction(pushTuple(arg.STRINGLITERAL().getText()));
-      if (arg.expr()          != null) 
-        programInstructionSet.addInstruction(pushTuple(getExprValue(arg.expr())));
+    for (int i = 0; i < arguments.size() && i < registers.length; i++) {
+      Operand argument = arguments.get(i);
+      programInstructionSet.addInstruction(argument instanceof Operand.Label
+        ? loadEffectiveAddress((Operand.Label) argument, registers[i])
+        : move(argument, registers[i]));
     }
 
-    programInstructionSet.addInstruction(callTuple(calloutName));
+    // Callouts are named by a string literal, quotes and all, which the assembler takes as the
+    // symbol's name.
+    String name = ctx.CALLOUT() != null
+      ? ctx.STRINGLITERAL().getText() : ctx.methodName().IDENTIFIER().getText();
+    programInstructionSet.addInstruction(call(new Operand.Label(name)));
+    if (pushed > 0)
+      programInstructionSet.addInstruction(
+        addition(Operand.Immediate.of(8L * pushed + padding), RSP));
+  }
+
+  /**
+   * Places a string literal in the data segment, the first time it is used.
+   * @param  text  The literal as written in the source, quotes included.
+   * @return Label The label of the string.
+   */
+  private Operand.Label stringLiteral(String text) {
+    Operand.Label label = strings.get(text);
+    if (label == null) {
+      label = new Operand.Label("string_" + strings.size());
+      strings.put(text, label);
+      dataSegment.add(new Instruction(Opcode.STRING, label, new Operand.Label(text)));
+    }
+    return label;
   }
 
   /**
    *  Calculates the memory address related to the element of the array defined in the source code.
-   *  Loads the base address into the base pointer register, subtracts 1 as arrays start at index 0,
+   *  Loads the base address into a pointer register, subtracts 1 as arrays start at index 0,
    *  multiplies the value by 4 as 32-bit integers occupy 4 bytes of memory each, adds the offset 
-   *  to the base address, and stores the final result back into the base pointer.
+   *  to the base address, and stores the final result back into the pointer. The base pointer
+   *  register is not used for this, as it holds the frame pointer once registers are allocated.
    *  @param  arrayName   The name of the array to access.
    *  @param  arrayIndex  The element of the array to access.
+   *  @return Operand     The register holding the address of the element.
    */
-  public void addArrayIndexAddressToPointer(String arrayName, String arrayIndex) {
-    String r0 = nextRegister();
+  public Operand addArrayIndexAddressToPointer(String arrayName, Operand arrayIndex) {
+    Operand r0 = nextRegister(Symbol.Type.INT);
+    registersIssued++;
+    Operand pointer = method.newRegister(Symbol.Type.INT);
 
-    programInstructionSet.addInstruction(loadEffectiveAddressTuple(arrayName));
-    programInstructionSet.addInstruction(moveTuple(arrayIndex, r0));
-    programInstructionSet.addInstruction(subtractionTuple("$1", r0));
-    programInstructionSet.addInstruction(multiplicationTuple("$4", r0));
-    programInstructionSet.addInstruction(additionTuple(r0, "%rbp"));
+    programInstructionSet.addInstruction(loadEffectiveAddress(new Operand.Label(arrayName), pointer));
+    programInstructionSet.addInstruction(move(arrayIndex, r0));
+    programInstructionSet.addInstruction(subtraction(Operand.Immediate.of(1), r0));
+    programInstructionSet.addInstruction(multiplication(Operand.Immediate.of(4), r0));
+    programInstructionSet.addInstruction(addition(r0, pointer));
+    return pointer;
   }
 
   /**
@@ -491,23 +704,28 @@ class LowLevelIRBuilder extends DecafParserBaseListener {
    *  this design practice has been used here. In this way, a Decaf program can have an infinite
    *  number of registers. After this IR, optimisation is done to map many different variables down
    *  to the amount of registers actually available.
-   *  @return String The name of the next register.
+   *  Registers are numbered from 0 in each method, in the order they are handed out.
+   *  @param  type    The Decaf type of the value the register will hold.
+   *  @return Operand The next register.
    */
-  public String nextRegister() {
-    String register = "";
-
-    // If we are at the end of list ('z'); reset the list to the start and increment the counter.
-    if (!charListItr.hasNext()) {
-      charListItr = charList.listIterator(); 
-      registerCounter++;
-    }
-
-    char currentChar = (char) charListItr.next();
-    register = "%" + currentChar + Integer.toString(registerCounter);
+  public Operand nextRegister(Symbol.Type type) {
+    registersIssued++;
+    return method.newRegister(type);
+  }
 
-    return register;
+  /**
+   * @param  ctx  The TypeContext object defined in DecafParser. Generated at compile time.
+   * @return      The Decaf type named.
+   */
+  private static Symbol.Type typeOf(DecafParser.TypeContext ctx) {
+    return Symbol.getType(ctx.getStart().getType());
   }
 
+  /**
+   * @return The number of registers handed out by #nextRegister, over all the methods.
+   */
+  public int registersIssued() { return registersIssued; }
+
   /**
    * Keeps track of the amount of IF statements in the source code so that they can be referenced
    * individually.
@@ -518,6 +736,16 @@ class LowLevelIRBuilder extends DecafParserBaseListener {
     return Integer.toString(ifLabelCounter);
   }
 
+  /**
+   * Keeps track of the amount of blocks made for conditions in the source code so that they can be
+   * referenced individually.
+   * @return  String  The current value of the counter as a String.
+   */
+  public String nextConditionLabelNumber() {
+    conditionLabelCounter++;
+    return Integer.toString(conditionLabelCounter);
+  }
+
   /**
    * Keeps track of the amount of FOR LOOPS in the source code so that they can be referenced
    * individually.
@@ -532,203 +760,203 @@ class LowLevelIRBuilder extends DecafParserBaseListener {
    *  An expression can have one of two possible values that are stored in different places:
    *  variableRegisterMap holds the register associated with a given location (variable),
    *  exprResultRegisterMap holds the register of the result of an expression (e.g. expr + expr),
-   *  Main.exprValues is populated with the value of an literal int, boolean or char character.
+   *  exprValues is populated with the value of an literal int, boolean or char character.
    *  If an expression has been used and resides in a register, that register is returned. If not,
    *  the actual value from the source code is returned as a constant.
    *  @param  ctx     The context object of the expression that a value is needed for.
-   *  @return String  Either a register if initialised or constant if not.
+   *  @return Operand Either a register if initialised or constant if not.
    */
-  public String getExprValue(DecafParser.ExprContext ctx) {
-    try {
-      String locationName = ctx.location().IDENTIFIER().getText();
-      return variableRegisterMap.get(locationName);
-    } catch (NullPointerException npe) {  }
+  public Operand getExprValue(DecafParser.ExprContext ctx) {
+    if (ctx == null) return null;
+    if (ctx.location() != null) return variableRegisterMap.get(ctx.location().IDENTIFIER().getText());
 
-    String tmp_r0 = exprResultRegisterMap.get(ctx);
-    String tmp_v  = Main.exprValues.get(ctx);
+    Operand tmp_r0 = exprResultRegisterMap.get(ctx);
+    String  tmp_v  = exprValues.get(ctx);
 
     if      (tmp_r0 != null)            return tmp_r0;
     else if (tmp_v  != null) {
-      try                               { return "$" + Integer.parseInt(tmp_v); }
-      catch (NumberFormatException nfe) { return tmp_v; }
+      // Int literals may be written in decimal or hex.
+      try                               { return Operand.Immediate.of(Long.decode(tmp_v)); }
+      catch (NumberFormatException nfe) { return null; }
     }
     else return null;
   }
 
   /**
    * Moves src to dest.
-   * @return String A ThreeCodeTuple object representing a move command.
-   */ 
-  public ThreeCodeTuple moveTuple(String src, String dest) {
-    return new ThreeCodeTuple("mov", src, dest);
+   * @return Instruction A move command.
+   */
+  public Instruction move(Operand src, Operand dest) {
+    return new Instruction(Opcode.MOV, src, dest);
   }
 
   /**
    * Moves src to dest if last comparison was equal.
-   * @return String A ThreeCodeTuple object representing a move command.
-   */ 
-  public ThreeCodeTuple moveEqualTuple(String src, String dest) {
-    return new ThreeCodeTuple("cmove", src, dest);
+   * @return Instruction A move command.
+   */
+  public Instruction moveEqual(Operand src, Operand dest) {
+    return new Instruction(Opcode.CMOVE, src, dest);
   }
 
   /**
    * Moves src to dest if last comparison was not equal.
-   * @return String A ThreeCodeTuple object representing a move command.
-   */ 
-  public ThreeCodeTuple moveNotEqualTuple(String src, String dest) {
-    return new ThreeCodeTuple("cmovne", src, dest);
+   * @return Instruction A move command.
+   */
+  public Instruction moveNotEqual(Operand src, Operand dest) {
+    return new Instruction(Opcode.CMOVNE, src, dest);
   }
 
   /**
-   * Moves src to dest if last comparison was greater than equal.
-   * @return String A ThreeCodeTuple object representing a move command.
-   */ 
-  public ThreeCodeTuple moveGreaterThanTuple(String src, String dest) {
-    return new ThreeCodeTuple("cmovg", src, dest);
+   * Moves src to dest if last comparison was greater than.
+   * @return Instruction A move command.
+   */
+  public Instruction moveGreaterThan(Operand src, Operand dest) {
+    return new Instruction(Opcode.CMOVG, src, dest);
   }
 
   /**
-   * Moves src to dest if last comparison was less than equal.
-   * @return String A ThreeCodeTuple object representing a move command.
-   */ 
-  public ThreeCodeTuple moveLessThanTuple(String src, String dest) {
-    return new ThreeCodeTuple("cmovl", src, dest);
+   * Moves src to dest if last comparison was less than.
+   * @return Instruction A move command.
+   */
+  public Instruction moveLessThan(Operand src, Operand dest) {
+    return new Instruction(Opcode.CMOVL, src, dest);
   }
 
   /**
    * Moves src to dest if last comparison was greater than or equal.
-   * @return String A ThreeCodeTuple object representing a move command.
-   */ 
-  public ThreeCodeTuple moveGreaterThanEqualTuple(String src, String dest) {
-    return new ThreeCodeTuple("cmovge", src, dest);
+   * @return Instruction A move command.
+   */
+  public Instruction moveGreaterThanEqual(Operand src, Operand dest) {
+    return new Instruction(Opcode.CMOVGE, src, dest);
   }
 
   /**
    * Moves src to dest if last comparison was less than or equal.
-   * @return String A ThreeCodeTuple object representing a move command.
-   */ 
-  public ThreeCodeTuple moveLessThanEqualTuple(String src, String dest) {
-    return new ThreeCodeTuple("cmovle", src, dest);
+   * @return Instruction A move command.
+   */
+  public Instruction moveLessThanEqual(Operand src, Operand dest) {
+    return new Instruction(Opcode.CMOVLE, src, dest);
   }
 
   /**
    * Creates a procedure stack frame.
-   * @return String A ThreeCodeTuple object representing an enter command.
-   */ 
-  public ThreeCodeTuple enterTuple(String src, String dest) {
-    return new ThreeCodeTuple("enter", src, dest);
+   * @return Instruction An enter command.
+   */
+  public Instruction enter(Operand src, Operand dest) {
+    return new Instruction(Opcode.ENTER, src, dest);
   }
 
   /**
    * Cleans up the local stack and resets the '%rsp' and '%rbp'.
-   * @return String A ThreeCodeTuple object representing a leave command.
-   */ 
-  public ThreeCodeTuple leaveTuple() {
-    return new ThreeCodeTuple("leave");
+   * @return Instruction A leave command.
+   */
+  public Instruction leave() {
+    return new Instruction(Opcode.LEAVE);
   }
 
   /**
    * Copies a value to the stack pointed at by '%rsp' to src and decreases '%rsp'.
-   * @return String A ThreeCodeTuple object representing a push command.
-   */ 
-  public ThreeCodeTuple pushTuple(String src) {
-    return new ThreeCodeTuple("push", src);
+   * @return Instruction A push command.
+   */
+  public Instruction push(Operand src) {
+    return new Instruction(Opcode.PUSH, src);
   }
 
   /**
    * Copies a value from the stack pointed at by '%rsp' to dest and increases '%rsp'.
-   * @return String A ThreeCodeTuple object representing a pop command.
-   */ 
-  public ThreeCodeTuple popTuple(String dest) {
-    return new ThreeCodeTuple("pop", dest);
+   * @return Instruction A pop command.
+   */
+  public Instruction pop(Operand dest) {
+    return new Instruction(Opcode.POP, dest);
   }
 
   /**
    * Calls a method or library function, passing control to the callee.
-   * @return String A ThreeCodeTuple object representing a call command.
-   */ 
-  public ThreeCodeTuple callTuple(String target) {
-    return new ThreeCodeTuple("call", target);
+   * @return Instruction A call command.
+   */
+  public Instruction call(Operand.Label target) {
+    return new Instruction(Opcode.CALL, target);
   }
 
   /**
    * Returns control from a method to the caller.
-   * @return  String  A ThreeCodeTuple object representing a return command.
+   * @return  Instruction A return command.
    */
-  public ThreeCodeTuple returnTuple() {
-    return new ThreeCodeTuple("ret");
+  public Instruction ret() {
+    return new Instruction(Opcode.RET);
   }
 
   /**
-   * * Jumps to target unconditionally.
-   * @return  String  A ThreeCodeTuple object representing a jump command.
+   * Jumps to target unconditionally.
+   * @return  Instruction A jump command.
    */
-  public ThreeCodeTuple jumpTuple(String target) {
-    return new ThreeCodeTuple("jmp", target);
+  public Instruction jump(Operand.Label target) {
+    return new Instruction(Opcode.JMP, target);
   }
 
   /**
    * Jumps to target if the flag set from the last command is 1; equal.
-   * @return  String  A ThreeCodeTuple object representing a jump command.
+   * @return  Instruction A jump command.
    */
-  public ThreeCodeTuple jumpEqualTuple(String target) {
-    return new ThreeCodeTuple("je", target);
+  public Instruction jumpEqual(Operand.Label target) {
+    return new Instruction(Opcode.JE, target);
   }
 
   /**
    * Jumps to target if the flag set from the last command is 0; not equal.
-   * @return  String  A ThreeCodeTuple object representing a jump command.
+   * @return  Instruction A jump command.
    */
-  public ThreeCodeTuple jumpNotEqualTuple(String target) {
-    return new ThreeCodeTuple("jne", target);
+  public Instruction jumpNotEqual(Operand.Label target) {
+    return new Instruction(Opcode.JNE, target);
   }
 
   /**
    * Compares two values and sets a flag depending on the result of src being greater than, equal to
    * or less than dest.
-   * @return  String  A ThreeCodeTuple object representing a comparison command.
+   * @return  Instruction A comparison command.
    */
-  public ThreeCodeTuple cmpTuple(String src, String dest) {
-    return new ThreeCodeTuple("cmp", src, dest);
+  public Instruction cmp(Operand src, Operand dest) {
+    return new Instruction(Opcode.CMP, src, dest);
   }
-  
+
   /**
    * `add src, dest`: add src to dest and store result in dest.
-   * @return  String  A ThreeCodeTuple object representing an addition command.
+   * @return  Instruction An addition command.
    */
-  public ThreeCodeTuple additionTuple(String num0, String num1) {
-    return new ThreeCodeTuple("add", num0, num1);
+  public Instruction addition(Operand num0, Operand num1) {
+    return new Instruction(Opcode.ADD, num0, num1);
   }
 
   /**
    * `sub src, dest`: subtract source from dest and store result in dest.
-   * @return  String  A ThreeCodeTuple object representing a label.
+   * @return  Instruction A subtraction command.
    */
-  public ThreeCodeTuple subtractionTuple(String num0, String num1) {
-    return new ThreeCodeTuple("sub", num0, num1);
+  public Instruction subtraction(Operand num0, Operand num1) {
+    return new Instruction(Opcode.SUB, num0, num1);
   }
 
   /**
    * `imul src, dest`: multiply dest by source and store result in dest.
-   *  @return  String  A ThreeCodeTuple object representing a multiplication command.
+   *  @return  Instruction A multiplication command.
    */
-  public ThreeCodeTuple multiplicationTuple(String num0, String num1) {
-    return new ThreeCodeTuple("imul", num0, num1);
+  public Instruction multiplication(Operand num0, Operand num1) {
+    return new Instruction(Opcode.IMUL, num0, num1);
   }
 
   /**
    * `idiv divisor` Divide rdx:rax by divisor. Stores quotient in rax and store remain in rdx.
-   *  @return  String  A ThreeCodeTuple object representing a division command.
+   *  @return  Instruction A division command.
    */
-  public ThreeCodeTuple divisionTuple(String divisor) {
-    return new ThreeCodeTuple("idiv", divisor);
+  public Instruction division(Operand divisor) {
+    return new Instruction(Opcode.IDIV, divisor);
   }
 
   /**
-   * @return  String  A ThreeCodeTuple object representing a label.
+   * `cqto` Sign extend rax into rdx:rax, ready for a division.
+   * @return  Instruction A sign extension command.
    */
-  public ThreeCodeTuple labelTuple(String label) {
-    return new ThreeCodeTuple(label);
+  public Instruction signExtend() {
+    return new Instruction(Opcode.CQTO);
   }
 
   /**
@@ -740,87 +968,40 @@ class LowLevelIRBuilder extends DecafParserBaseListener {
    * @param  name  The name of the new array.
    * @param  size  The size of the new array.
    */
-  public ThreeCodeTuple arrayDeclTuple(String name, int size) {
-    return new ThreeCodeTuple(name, ".space " + Integer.toString(size * 4));
+  public Instruction arrayDecl(String name, int size) {
+    return new Instruction(Opcode.SPACE, new Operand.Label(name), Operand.Immediate.of(size * 4));
   } 
 
   /**
-   * Store in %rbp: the start address in memory for the provided label.
-   * @param  label The name relating to the data in memory
+   * Store in dest: the start address in memory for the provided label.
+   * @param  label The label relating to the data in memory
+   * @param  dest  The register to hold the address.
    */
-  public ThreeCodeTuple loadEffectiveAddressTuple(String label) {
-    return new ThreeCodeTuple("lea", label, "%rbp");
+  public Instruction loadEffectiveAddress(Operand.Label label, Operand dest) {
+    return new Instruction(Opcode.LEA, label, dest);
   }
 
   /**
-   * An object to encapsulate the information of a Three-code tuple that is made up of, at most, 
-   * three individual parts. Constructor overloading allows either 1, 2 or 3 parts to be passed in
-   * during construction.
-   * Note, this class could be in it's own file, however, it wont be used by any other part of the
-   * application so I think it is best practice to keep it with the code using it.
+   * The blocks of the FOR loop being walked, for BREAK and CONTINUE to jump to. They are created
+   * before the loop is numbered, so their labels are named when it exits.
    */
-  class ThreeCodeTuple {
-    public ThreeCodeTuple(String command, String source, String destination) {
-      this.command = command;
-      this.source = source + ",";
-      this.destination = destination;
-    }
-
-    public ThreeCodeTuple(String command, String source) {
-      this.command = command;
-      this.source = source;
-      this.destination = "";
-    }
-
-    public ThreeCodeTuple(String command) {
-      this.command = command;
-      this.source = "";
-      this.destination = "";
-    }
-
-    public final String command;
-    public final String source;
-    public final String destination;
-
-    public String toString() {
-      return command + " " + source + " " + destination; 
-    }
+  class Loop {
+    final BasicBlock start = new BasicBlock(new Operand.Label());
+    final BasicBlock end = new BasicBlock(new Operand.Label());
   }
 
   /**
-   * Class to wrap a List of ThreeCodeTuples. Indexes are manipulated to ensure that assembly code
-   * is written in the correct sequence. The decision to use this over the Visitor pattern is due to
-   * the simplicity of inserting/moving nodes in a list vs designing a complex tree traversal.
-   * Note, this class could be in it's own file, however, it wont be used by any other part of the
-   * application so I think it is best practice to keep it with the code using it.
+   * The blocks a condition jumps to when it is true and when it is false, and which of the two is
+   * laid out straight after its code, so that it only needs a jump to the other.
    */
-  public class InstructionSet {
-    public InstructionSet() { addDefaultInstructions(); }
-    public List<ThreeCodeTuple> instructions = new ArrayList<>();
-
-    public void addInstruction(ThreeCodeTuple instruction) { instructions.add(instruction); }
-
-    public void addInstruction(ThreeCodeTuple instruction, int index) { 
-      instructions.add(index, instruction);
-    }
-
-    public void addMultipleInstructions(ArrayList<ThreeCodeTuple> instructionList, int index) {
-      if (index == -1)  instructions.addAll(instructionList);
-      else              instructions.addAll(index, instructionList);
-    }
-
-    public void removeLastInstructions(int amountToRemove) {
-      instructions = instructions.subList(0, instructions.size() - amountToRemove);
-    }
-
-    public void addDefaultInstructions(){
-      instructions.add(new ThreeCodeTuple(".global", "main"));
+  class Condition {
+    Condition(BasicBlock whenTrue, BasicBlock whenFalse, boolean trueFollows) {
+      this.whenTrue = whenTrue;
+      this.whenFalse = whenFalse;
+      this.trueFollows = trueFollows;
     }
 
-    public String toString() {
-      String string = "";
-      for (ThreeCodeTuple instruction : instructions) { string += instruction.toString() + "\n"; }
-      return string;
-    }
+    final BasicBlock whenTrue, whenFalse;
+    final boolean trueFollows;
   }
-}
\ No newline at end of file
+}
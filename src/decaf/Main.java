@@ -13,8 +13,10 @@ import org.antlr.v4.gui.TreeViewer;
 import org.antlr.v4.runtime.DiagnosticErrorListener;
 import org.antlr.v4.runtime.ANTLRErrorListener;
 import org.antlr.v4.runtime.tree.*;
-import org.antlr.v4.runtime.ANTLRInputStream;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.atn.PredictionMode;
 import java6G6Z1010.tools.CLI.*;
 import java.util.Hashtable;
@@ -28,50 +30,125 @@ import javax.swing.JFrame;
 
 /**
  * Main compiler class. Contains all logic for scanning, parsing and compiling Decaf source files.
+ * Each instance is one compilation: everything it needs, from the command line to the Lexer, Parser
+ * and output file, is held in instance fields so that several compilations can run in one JVM. The
+ * generated Lexer and Parser keep their ATN and DFA caches in static fields, so every compilation
+ * in a long-running JVM benefits from the predictions made by the ones before it.
  */
 public class Main {
   /**
-   * Empty constructor for default usage.
+   * Empty constructor for default usage. Messages are written to the standard streams.
    */
-  public Main () {}
+  public Main () { this(System.out, System.err); }
 
   /**
    * Constructor used for adding extra listeners. Will help later in testing as we can inject a
    * listener that doesn't write out to a file or to stdout; removing the need for I/O. Not used.
    * @param listeners Array of listeners to add to the Lexer and Parser.
    */
-  public Main(ANTLRErrorListener[] listeners) { _extraErrorListeners = listeners; }
+  public Main(ANTLRErrorListener[] listeners) { this(); _extraErrorListeners = listeners; }
 
-  // Declare class variables to hold important objects.
-  private static DecafLexer lexer;
-  private static DecafParser parser;
-  private static Map<Integer, String> printableTypes;
-  private static ANTLRErrorListener[] _extraErrorListeners;
-  private static ErrorHandler errorHandler;
-  public static ParseTreeProperty<String> exprValues = new ParseTreeProperty<>();
+  /**
+   * Constructor used when the messages of this compilation need to go somewhere other than the
+   * standard streams, such as back over a socket to a client of the CompileServer.
+   * @param out Stream for messages that would otherwise go to System.out.
+   * @param err Stream for messages that would otherwise go to System.err.
+   */
+  public Main(PrintStream out, PrintStream err) {
+    this.out = out;
+    this.err = err;
+  }
+
+  // Declare instance variables to hold important objects.
+  private CLI cli = new CLI();
+  private DecafLexer lexer;
+  private DecafParser parser;
+  private Map<Integer, String> printableTypes;
+  private ANTLRErrorListener[] _extraErrorListeners;
+  private ErrorHandler errorHandler;
+  private OutputSink sink;
+  private ParseTreeProperty<String> exprValues = new ParseTreeProperty<>();
+  private Path workingDirectory;
+  private SourceFile source;
+  private PhaseProfiler profiler;
+  private InstructionSet program;
+  private long spilledRegisters, constantsFolded, deadInstructions, subexpressionsReused,
+               invariantsHoisted, accessesReduced;
+  private final long[] peepholesFired = new long[PeepholeOptimiser.RULES.length];
+
+  // The optimisations -opt can turn on, by name, and the index of each. The rules of the
+  // PeepholeOptimiser come after the passes, from PEEPHOLE on, so each can be turned off alone.
+  private static final String[] PASSES = { "constprop", "dce", "cse", "licm", "ivsr" };
+  private static final int CONSTANT_PROPAGATION = 0, DEAD_CODE_ELIMINATION = 1,
+                           COMMON_SUBEXPRESSIONS = 2, LOOP_INVARIANTS = 3,
+                           STRENGTH_REDUCTION = 4, PEEPHOLE = PASSES.length;
+  private static final String[] OPTIMISATIONS =
+      new String[PASSES.length + PeepholeOptimiser.RULES.length];
+  static {
+    System.arraycopy(PASSES, 0, OPTIMISATIONS, 0, PASSES.length);
+    for (int r = 0; r < PeepholeOptimiser.RULES.length; r++)
+      OPTIMISATIONS[PEEPHOLE + r] = PeepholeOptimiser.RULES[r].name;
+  }
+  // The register allocators -regalloc can choose between.
+  private static final List<String> REGISTER_ALLOCATORS = Arrays.asList("colour", "linear");
+  private final PrintStream out;
+  private final PrintStream err;
 
   /**
    * Main entry point for the compiler. Controls flow of process through scan, parse, and compile
-   * stages.
+   * stages. Starts a CompileServer instead if the first argument is -server.
    * @param args  Supplied by command line and determined by user.
    */
   public static void main(String[] args) {
+    if    (args.length > 0 && args[0].equals("-server"))
+      CompileServer.main(Arrays.copyOfRange(args, 1, args.length));
+    else
+      new Main().compile(args);
+  }
+
+  /**
+   * Runs one compilation.
+   * @param args  The command-line arguments for this compilation.
+   */
+  public void compile(String[] args) { compile(args, null); }
+
+  /**
+   * Runs one compilation, with relative input and output file names resolved against the given
+   * directory instead of the working directory of this JVM.
+   * @param args              The command-line arguments for this compilation.
+   * @param workingDirectory  The directory the arguments are relative to, or null.
+   */
+  public void compile(String[] args, Path workingDirectory) {
     // Call setup method. Used in lieu of constructor as command line arguments are sent to the Main
     // object's main() method, instead of passed into the Main object upon construction.
+    this.workingDirectory = workingDirectory;
+
+    // The profiler has to be running before setUp, which is where the command line is parsed.
+    if (Arrays.asList(args).contains("-profile")) profiler = new PhaseProfiler();
+    startPhase("setUp");
     setUp(args);
 
-    if      (  CLI.target == CLI.DEFAULT
-            || CLI.target == CLI.SCAN     )  scan();
-    else if (  CLI.target == CLI.PARSE    )  parse();
-    else if (  CLI.target == CLI.INTER    )  check(parse());
-    else if (  CLI.target == CLI.ASSEMBLY )  { 
-      ParseTree tree = parse();
-      if    (check(tree)) generateCode(tree);
-      else  System.out.println("[decaf] BUILD FAILED.");
+    try {
+      if      (!REGISTER_ALLOCATORS.contains(cli.regalloc))
+        err.println("[decaf] unknown register allocator " + cli.regalloc
+                    + ". Use -regalloc=colour or -regalloc=linear.");
+      else if (  cli.target == CLI.DEFAULT
+              || cli.target == CLI.SCAN     )  scan();
+      else if (  cli.target == CLI.PARSE    )  parse();
+      else if (  cli.target == CLI.INTER    )  check(parse());
+      else if (  cli.target == CLI.ASSEMBLY )  { 
+        ParseTree tree = parse();
+        if    (check(tree)) generateCode(tree);
+        else  out.println("[decaf] BUILD FAILED.");
+      }
+    } finally {
+      startPhase("emission");
+      closeSink();
+      writeProfile();
     }
   }
 
-  protected static void setUp(String[] args) { setUp(args, false); }
+  protected void setUp(String[] args) { setUp(args, false); }
 
   /**
   * Sets up the CLI object that encapsulates the information captured from the command line, the
@@ -81,24 +158,27 @@ public class Main {
   * with the Lexer and Parser.
   * @param args The command-line arguments supplied from main().
   */
-  protected static void setUp(String[] args, boolean stringInput) {
+  protected void setUp(String[] args, boolean stringInput) {
     try {
  
-      InputStream inputStream = null;
-      if (stringInput) inputStream = new ByteArrayInputStream(args[0].getBytes());
+      if (stringInput) source = SourceFile.wrap(args[0].getBytes(), null);
       else {
         // The first argument into parse is the arguments supplied from the command line, the second
-        // is an empty array of optional arguments which aren't used.
+        // is the names of the optimisations that can be turned on with -opt.
 
-        CLI.parse(args, new String[0]);
+        cli = CLI.parse(args, OPTIMISATIONS);
+        if (workingDirectory != null) resolveFiles();
 
-        if    (args.length == 0)  inputStream = System.in; 
-        else                      inputStream = new java.io.FileInputStream(CLI.infile);
+        // Files are memory-mapped and read in place, both by the Lexer and for error messages.
+        if    (cli.infile == null)  source = SourceFile.read(System.in, null);
+        else                        source = SourceFile.map(cli.infile);
       }
 
-      ANTLRInputStream antlrIOS = new ANTLRInputStream(inputStream);
+      // Everything written to the output file, tokens and lexer errors alike, goes through the one
+      // buffered sink so the file is opened once per run rather than once per line.
+      sink = new OutputSink(cli.outfile);
 
-      lexer = new DecafLexer(antlrIOS);
+      lexer = new DecafLexer(source.charStream());
 
       CommonTokenStream tokens = new CommonTokenStream(lexer);
 
@@ -106,14 +186,19 @@ public class Main {
 
       // Remove the ConsoleListener from the Lexer and add custom ErrorListener.
       lexer.removeErrorListeners();
-      lexer.addErrorListener(new SyntaxErrorListener(CLI.infile, CLI.outfile));
+      lexer.addErrorListener(new SyntaxErrorListener(cli, sink, out));
+
+      // The Parser's ConsoleListener always prints to System.err, so it is swapped for one that
+      // prints the same messages to the error stream of this compilation.
+      parser.removeErrorListeners();
+      parser.addErrorListener(new StreamErrorListener(err));
 
       // Add custom ErrorHandler to print better error messages and reduce duplication.
-      errorHandler = new ErrorHandler();
+      errorHandler = new ErrorHandler(cli, source, out);
 
       // Add DiagnosticErrorListener to Parser and set ambiguity reporting to high.
       // TODO: We want to fail build and print grammatical errors encountered during parsing
-      if (CLI.debug) {
+      if (cli.debug) {
         parser.addErrorListener(new DiagnosticErrorListener());
         parser.getInterpreter().setPredictionMode(PredictionMode.LL_EXACT_AMBIG_DETECTION);
       }
@@ -129,65 +214,118 @@ public class Main {
       // (ID, Name). Select types of tokens that are to be printed alongside the text during error
       // reporting. Lookup done by Token type.
       printableTypes = new HashMap<Integer, String>() {{
-        put(lexer.IDENTIFIER, "IDENTIFIER ");
-        put(lexer.INTLITERAL, "INTLITERAL ");
-        put(lexer.CHARLITERAL, "CHARLITERAL ");
-        put(lexer.STRINGLITERAL, "STRINGLITERAL ");
-        put(lexer.BOOLEANLITERAL, "BOOLEANLITERAL ");
+        put(DecafLexer.IDENTIFIER, "IDENTIFIER ");
+        put(DecafLexer.INTLITERAL, "INTLITERAL ");
+        put(DecafLexer.CHARLITERAL, "CHARLITERAL ");
+        put(DecafLexer.STRINGLITERAL, "STRINGLITERAL ");
+        put(DecafLexer.BOOLEANLITERAL, "BOOLEANLITERAL ");
       }};
 
-      if (CLI.debug) { 
-        System.out.println("In file: " + CLI.infile);
-        System.out.println("Out file: " + CLI.outfile);
+      if (cli.debug) { 
+        out.println("In file: " + cli.infile);
+        out.println("Out file: " + cli.outfile);
       }
 
-    } catch(Exception e) { System.out.println(CLI.infile + " " + e); }
+    } catch(Exception e) { out.println(cli.infile + " " + e); }
+  }
+
+  /**
+   * Makes the input and output file names absolute by resolving them against the directory the
+   * compilation was requested from.
+   */
+  private void resolveFiles() {
+    if (cli.infile  != null) cli.infile  = workingDirectory.resolve(cli.infile).toString();
+    if (cli.outfile != null) cli.outfile = workingDirectory.resolve(cli.outfile).toString();
   }
 
   /**
    * Iterates over the tokenised input building an iterable String object for each token that can be
    * written as a line of text to a file. This text is in the form: line number (optional)type text
    */
-  protected static void scan() {
-    if (CLI.debug)  System.out.println("Printable types (ID,Name): " + printableTypes.toString());
+  protected void scan() {
+    if (cli.debug)  out.println("Printable types (ID,Name): " + printableTypes.toString());
+    // Tokens are written to the sink as they are lexed, so both count as lexing here.
+    startPhase("lexing");
+    int tokens = 0;
     // Lexer provides the next Token(type, text, line, col) object from the stream.
     for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
 
-      if (CLI.debug)
-        System.out.println(token.getLine() + ":" + token.getCharPositionInLine() + "\t" +
+      if (cli.debug)
+        out.println(token.getLine() + ":" + token.getCharPositionInLine() + "\t" +
           printableTypes.getOrDefault(token.getType(), "") + " " + token.getText());
 
       printToFile(Arrays.asList(token.getLine() + " " + 
         printableTypes.getOrDefault(token.getType(), "") + token.getText()));
+      tokens++;
     }
+    stopPhase();
+    count("tokens", tokens);
   }
 
   /**
    * Builds a ParseTree from the tokens scanned by the Lexer.
    * @return ParseTree The Abstract Syntax Tree (AST) generated from the tokens.
    */
-  protected static ParseTree parse() {
-    // Returns the Context object for "program" (defined in DecafParser.g4)
-    ParseTree tree = parser.program();
-    TreePrinterListener listener = new TreePrinterListener(parser);
-    ParseTreeWalker.DEFAULT.walk(listener, tree);
-    
-    if (CLI.target == CLI.PARSE) printToFile(Arrays.asList(listener.toString()));
+  protected ParseTree parse() {
+    // Returns the Context object for "program" (defined in DecafParser.g4). Debug runs keep the one
+    // exact-ambiguity LL pass so that the DiagnosticErrorListener sees every decision.
+    ParseTree tree;
+    // The Parser pulls tokens from the Lexer as it goes, so lexing is only timed apart from parsing
+    // when profiling. Lexing everything first changes the order lexer and parser errors print in.
+    if (profiler != null) {
+      startPhase("lexing");
+      CommonTokenStream tokens = (CommonTokenStream) parser.getTokenStream();
+      tokens.fill();
+      stopPhase();
+      count("tokens", tokens.size() - 1);
+    }
 
-    if (CLI.debug) {
-      System.out.println(listener.toString());      
-      showTree(tree);
+    startPhase("parsing");
+    TwoStageParseStrategy strategy = new TwoStageParseStrategy();
+    if    (cli.debug) tree = parser.program();
+    else              tree = strategy.parse(parser);
+
+    // The tree is only printed when it is going to be read: to the output file for the parse target,
+    // where it is streamed straight into the sink, and to the console for debugging.
+    if (cli.target == CLI.PARSE || cli.debug) {
+      startPhase("treePrinting");
+      printTree(tree);
+      if (cli.debug) showTree(tree);
     }
+    stopPhase();
+    if (profiler != null) count("parseTreeNodes", countNodes(tree));
+    // 1 if SLL failed on this program and it was parsed again with full LL.
+    count("llFallbacks", strategy.fallbacks());
 
     return tree;
   }
 
+  /**
+   * Prints the tree in the bracketed form of the .parse file. When debugging the text is also
+   * needed for the console, so it is built in memory first; otherwise it goes straight to the sink.
+   * @param tree  The AST built during the parse of the Decaf source code.
+   */
+  private void printTree(ParseTree tree) {
+    List<String> ruleNames = Arrays.asList(parser.getRuleNames());
+    try {
+      if (cli.debug) {
+        StringBuilder text = new StringBuilder();
+        ParseTreeWalker.DEFAULT.walk(new TreePrinterListener(ruleNames, text), tree);
+        if (cli.target == CLI.PARSE) sink.println(text);
+        out.println(text);
+      }
+      else {
+        ParseTreeWalker.DEFAULT.walk(new TreePrinterListener(ruleNames, sink), tree);
+        sink.println("");
+      }
+    } catch(IOException | UncheckedIOException e) { out.println("I/O Error: " + e); }
+  }
+
   /**
    * @param ParseTree The AST generated by the #parse method.
    */
-  protected static void generateCode(ParseTree tree) {
+  protected void generateCode(ParseTree tree) {
     buildLowLevelIR(tree);
-    allocateRegisters();
   }
 
   /** 
@@ -207,11 +345,15 @@ public class Main {
    * @param   ParseTree The AST generated by the #parse method.
    * @return  boolean   Returns true if no semantic errors encountered, false otherwise.
    */
-  protected static boolean check(ParseTree tree) {
-    SemanticRuleManager manager = new SemanticRuleManager(errorHandler);
+  protected boolean check(ParseTree tree) {
+    startPhase("semanticCheck");
+    SemanticRuleManager manager = new SemanticRuleManager(errorHandler, cli, out);
     ParseTreeWalker.DEFAULT.walk(manager, tree);
+    exprValues = manager.exprValues;
 
     if (errorHandler.totalErrors() > 0) errorHandler.printErrors();
+    stopPhase();
+    count("symbols", manager.symbolsDefined);
 
     return errorHandler.totalErrors() == 0;
   }
@@ -220,16 +362,120 @@ public class Main {
    * Builds a instruction set that contains a list of assembly language instructions based on the
    * code written in the Decaf source code. This intermediate representation is not valid x86_64
    * assembly as it uses an unlimited amount of pseudo-registers.
+   * Each method is finished with and printed as soon as it has been built, and its IR let go of, so
+   * the most IR held at once is that of the largest method rather than of the whole program.
    * @param tree  The AST built during the parse of the Decaf source code.
    */
-  private static void buildLowLevelIR(ParseTree tree) {
-    LowLevelIRBuilder builder = new LowLevelIRBuilder();
+  private void buildLowLevelIR(ParseTree tree) {
+    startPhase("irBuilding");
+    LowLevelIRBuilder builder = new LowLevelIRBuilder(exprValues, method -> {
+      startPhase("analysis");
+      ControlFlowGraph graph = new ControlFlowGraph(method);
+      startPhase("optimisation");
+      graph = optimise(method, graph);
+      startPhase("analysis");
+      if (cli.debug) out.print(graph);
+      allocateRegisters(method, graph);
+      startPhase("optimisation");
+      peephole(graph);
+      startPhase("emission");
+      emit(program);
+      startPhase("irBuilding");
+    });
+    program = builder.programInstructionSet;
     ParseTreeWalker.DEFAULT.walk(builder, tree);
+    count("virtualRegisters", builder.registersIssued());
+    count("irInstructions", program.size());
 
-    if (CLI.target == CLI.ASSEMBLY)
-      printToFile(Arrays.asList(builder.programInstructionSet.toString()));
-    
-    if (CLI.debug) System.out.println(builder.programInstructionSet.toString());
+    // The data segment follows the last method.
+    startPhase("emission");
+    emit(program);
+    try {
+      if (cli.target == CLI.ASSEMBLY) sink.println("");
+    } catch(IOException e) { out.println("I/O Error: " + e); }
+    if (cli.debug) out.println();
+    program = null;
+    stopPhase();
+  }
+
+  /**
+   * Prints the blocks built since the last call, to the output file when assembly is the target and
+   * to the message stream when debugging, then lets go of them.
+   * @param program The program being built.
+   */
+  private void emit(InstructionSet program) {
+    try {
+      if (cli.target == CLI.ASSEMBLY) AssemblyPrinter.print(program.first(), null, sink);
+      if (cli.debug)                  AssemblyPrinter.print(program.first(), null, out);
+    } catch(IOException e) { out.println("I/O Error: " + e); }
+    program.restart();
+  }
+
+  /**
+   * Runs the optimisations turned on with -opt over a method, in order, before its registers are
+   * allocated. A pass that changes where control can go has the control flow graph built again.
+   * @param method  A method that has just been built.
+   * @param graph   The control flow graph of the method.
+   * @return        The control flow graph of the optimised method.
+   */
+  private ControlFlowGraph optimise(MethodIR method, ControlFlowGraph graph) {
+    if (optimising(CONSTANT_PROPAGATION)) {
+      ConstantPropagation pass = new ConstantPropagation(graph);
+      if (pass.run()) graph = new ControlFlowGraph(method);
+      constantsFolded += pass.folded;
+      count("constantsFolded", constantsFolded);
+    }
+    if (optimising(LOOP_INVARIANTS)) {
+      LoopInvariantCodeMotion pass = new LoopInvariantCodeMotion(method, graph);
+      graph = pass.run();
+      invariantsHoisted += pass.hoisted;
+      count("invariantsHoisted", invariantsHoisted);
+    }
+    if (optimising(STRENGTH_REDUCTION)) {
+      StrengthReduction pass = new StrengthReduction(method, graph);
+      graph = pass.run();
+      accessesReduced += pass.reduced;
+      count("accessesReduced", accessesReduced);
+    }
+    if (optimising(COMMON_SUBEXPRESSIONS)) {
+      ValueNumbering pass = new ValueNumbering(graph);
+      pass.run();
+      subexpressionsReused += pass.replaced;
+      count("subexpressionsReused", subexpressionsReused);
+    }
+    if (optimising(DEAD_CODE_ELIMINATION)) {
+      DeadCodeElimination pass = new DeadCodeElimination(method, graph);
+      graph = pass.run();
+      deadInstructions += pass.instructionsRemoved;
+      count("deadInstructionsRemoved", deadInstructions);
+    }
+    return graph;
+  }
+
+  /**
+   * Runs the rules of the PeepholeOptimiser turned on with -opt over a method whose registers have
+   * been allocated, and counts how often each fired.
+   * @param graph The control flow graph of the method.
+   */
+  private void peephole(ControlFlowGraph graph) {
+    boolean[] enabled = new boolean[PeepholeOptimiser.RULES.length];
+    boolean any = false;
+    for (int r = 0; r < enabled.length; r++) any |= enabled[r] = optimising(PEEPHOLE + r);
+    if (!any) return;
+
+    PeepholeOptimiser pass = new PeepholeOptimiser(graph, enabled);
+    pass.run();
+    for (int r = 0; r < enabled.length; r++) {
+      if (!enabled[r]) continue;
+      peepholesFired[r] += pass.fired[r];
+      String name = PeepholeOptimiser.RULES[r].name;
+      count("peephole" + Character.toUpperCase(name.charAt(0)) + name.substring(1),
+            peepholesFired[r]);
+    }
+  }
+
+  private boolean optimising(int optimisation) {
+    return optimisation < cli.opts.length && cli.opts[optimisation];
   }
 
   /**
@@ -237,15 +483,33 @@ public class Main {
    * and map these temporaries to registers in such a way that the same register doesn't hold two
    * temporaries that are live at the same time. First a liveness graph is created, then once that
    * has been defined a Register Interference Graph (RIG) is drawn to show which temporaries can
-   * share a register. Finally, graph colouring is used to assign the registers.
+   * share a register. Finally, graph colouring is used to assign the registers; with
+   * -regalloc=linear, a linear scan over live intervals is used instead, which is faster on very
+   * large methods but spills more.
+   * @param method  A method that has just been built.
+   * @param graph   The control flow graph of the method.
    */
-  private static void allocateRegisters() {}
+  private void allocateRegisters(MethodIR method, ControlFlowGraph graph) {
+    if (cli.debug) {
+      LivenessAnalysis liveness = new LivenessAnalysis(graph);
+      for (int b = 0; b < graph.blocks.size(); b++)
+        out.println(graph.nameOf(b) + ": live in {" + liveness.describe(liveness.liveIn[b])
+                    + "} out {" + liveness.describe(liveness.liveOut[b]) + "}");
+    }
+
+    RegisterAllocator allocator = cli.regalloc.equals("linear")
+                                  ? new LinearScanAllocator(method, graph)
+                                  : new GraphColouringAllocator(method, graph);
+    allocator.allocate();
+    spilledRegisters += allocator.spilled;
+    count("spilledRegisters", spilledRegisters);
+  }
 
   /**
    * Creates a Swing frame object and prints the AST in a graphical form. Useful for debugging.
    * @param tree  The AST built during the parse of the Decaf source code.
    */
-  private static void showTree(ParseTree tree) {
+  private void showTree(ParseTree tree) {
     JFrame frame = new JFrame("Tree");
     frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     
@@ -264,12 +528,81 @@ public class Main {
 
   /**
    * Requires an Iterable<T> type object to write to File. Will not accept a String alone.
+   * Lines are buffered by the sink and only reach the file once enough have built up.
    * @param lines List of lines to be written to the file.
    */
-  private static void printToFile(List<String> lines) {
+  private void printToFile(List<String> lines) {
     try {
-      Files.write(Paths.get(CLI.outfile), lines, Charset.forName("UTF-8"),
-          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-    } catch(Exception e) { System.out.println("I/O Error: " + e); }
+      for (String line : lines) sink.println(line);
+    } catch(Exception e) { out.println("I/O Error: " + e); }
+  }
+
+  /**
+   * Writes out whatever is still buffered in the sink and closes the output file.
+   */
+  private void closeSink() {
+    if (sink == null) return;
+    try {
+      sink.close();
+    } catch(Exception e) { out.println("I/O Error: " + e); }
+  }
+
+  /**
+   * Starts timing a phase of the compilation when -profile was given, ending the one before it.
+   * @param name  The name of the phase in the profile.
+   */
+  private void startPhase(String name) { if (profiler != null) profiler.start(name); }
+
+  private void stopPhase() { if (profiler != null) profiler.stop(); }
+
+  /**
+   * Records the size of something a phase worked on when -profile was given.
+   * @param name  The name of the counter in the profile.
+   * @param value The size.
+   */
+  private void count(String name, long value) { if (profiler != null) profiler.count(name, value); }
+
+  /**
+   * @return The number of nodes in the tree, counting both rules and tokens.
+   */
+  private static int countNodes(ParseTree tree) {
+    int nodes = 1;
+    for (int i = 0; i < tree.getChildCount(); i++) nodes += countNodes(tree.getChild(i));
+    return nodes;
+  }
+
+  /**
+   * Writes the profile of this compilation as JSON next to the output file, or to the message
+   * stream when the output has no file name because the source came from stdin.
+   */
+  private void writeProfile() {
+    if (profiler == null) return;
+    profiler.stop();
+    if (source != null) profiler.count("sourceBytes", source.size());
+
+    String json = profiler.toJson(cli.infile, TARGET_NAMES[cli.target]);
+    try {
+      if    (cli.outfile == null) out.print(json);
+      else  Files.write(Paths.get(cli.outfile + ".profile.json"), json.getBytes("UTF-8"));
+    } catch(Exception e) { out.println("I/O Error: " + e); }
+  }
+
+  // Names of the CLI targets, indexed by their values.
+  private static final String[] TARGET_NAMES = { "default", "scan", "parse", "inter", "assembly" };
+
+  /**
+   * Reports syntax errors in the same format as ANTLR's ConsoleErrorListener, but to the given
+   * stream instead of always to System.err.
+   */
+  private static class StreamErrorListener extends BaseErrorListener {
+    StreamErrorListener(PrintStream stream) { this.stream = stream; }
+
+    private final PrintStream stream;
+
+    @Override
+    public void syntaxError(Recognizer<?,?> recognizer, Object offendingSymbol,
+                            int line, int charPositionInLine, String msg, RecognitionException e) {
+      stream.println("line " + line + ":" + charPositionInLine + " " + msg);
+    }
   }
 }
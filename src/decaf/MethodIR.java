@@ -0,0 +1,60 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * The IR of one method: its blocks, which run from the first to the last, and the virtual registers
+ * it uses. Registers are numbered densely from 0 in each method, so anything kept per register, such
+ * as whether it is live, can be held in an array or a bitset indexed by its id rather than a map.
+ */
+class MethodIR {
+  MethodIR(String name) {
+    this.name = name;
+    this.first = new BasicBlock(new Operand.Label(name));
+  }
+
+  final String name;
+  final BasicBlock first;
+  // Set once the whole method has been built.
+  BasicBlock last;
+  // registers.get(id) is the register numbered id.
+  final List<Operand.VirtualRegister> registers = new ArrayList<>();
+
+  /**
+   * @param type  The Decaf type of the value the register will hold.
+   * @return      A register numbered one after the last register of this method.
+   */
+  Operand.VirtualRegister newRegister(Symbol.Type type) {
+    Operand.VirtualRegister register =
+      new Operand.VirtualRegister(registers.size(), type, widthOf(type));
+    registers.add(register);
+    return register;
+  }
+
+  /**
+   * @return The number of registers handed out, which is one more than the highest id.
+   */
+  int registerCount() { return registers.size(); }
+
+  /**
+   * Every value takes 8 bytes, booleans as much as ints, in a register or in a global's slot: all of
+   * the moves and arithmetic the IR is lowered to are 64-bit, and so is an address.
+   * @param type  A Decaf type.
+   * @return      The size in bytes of a value of the type.
+   */
+  static int widthOf(Symbol.Type type) {
+    return 8;
+  }
+}
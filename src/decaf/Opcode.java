@@ -0,0 +1,150 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * Intel (2016). Intel 64 and IA-32 Architectures Software Developer’s Manual. Online. p113-118.
+ *
+ */
+
+package decaf;
+
+/**
+ * The operations an Instruction can perform, with the AT&T mnemonic each is printed as and the
+ * number of operands it takes. Directives to the assembler are included so that the whole program,
+ * data segment and all, is held in the one typed form until it is printed.
+ */
+enum Opcode {
+  MOV("mov", 2),
+  MOVZB("movzbq", 2),
+  CMOVE("cmove", 2),
+  CMOVNE("cmovne", 2),
+  CMOVG("cmovg", 2),
+  CMOVL("cmovl", 2),
+  CMOVGE("cmovge", 2),
+  CMOVLE("cmovle", 2),
+  SETE("sete", 1),
+  SETNE("setne", 1),
+  SETG("setg", 1),
+  SETL("setl", 1),
+  SETGE("setge", 1),
+  SETLE("setle", 1),
+  LEA("lea", 2),
+  ADD("add", 2),
+  SUB("sub", 2),
+  IMUL("imul", 2),
+  XOR("xor", 2),
+  IDIV("idiv", 1),
+  CQTO("cqto", 0),
+  CMP("cmp", 2),
+  PUSH("push", 1),
+  POP("pop", 1),
+  ENTER("enter", 2),
+  LEAVE("leave", 0),
+  CALL("call", 1),
+  RET("ret", 0),
+  JMP("jmp", 1),
+  JE("je", 1),
+  JNE("jne", 1),
+  JG("jg", 1),
+  JL("jl", 1),
+  JGE("jge", 1),
+  JLE("jle", 1),
+
+  // Assembler directives. SPACE takes the label of the space and its size in bytes; STRING the
+  // label of the string and the literal, quotes and all.
+  GLOBAL(".global", 1),
+  DATA(".data", 0),
+  SPACE(".space", 2),
+  STRING(".string", 2);
+
+  Opcode(String mnemonic, int operands) {
+    this.mnemonic = mnemonic;
+    this.operands = operands;
+  }
+
+  final String mnemonic;
+  final int operands;
+
+  /**
+   * @return Whether the instruction may pass control somewhere other than the next instruction.
+   */
+  boolean isJump() { return this == JMP || isConditionalJump(); }
+
+  /**
+   * @return Whether the instruction jumps only when a condition holds, reading the flags.
+   */
+  boolean isConditionalJump() { return compareTo(JE) >= 0 && compareTo(JLE) <= 0; }
+
+  /**
+   * @return Whether control never passes to the next instruction.
+   */
+  boolean isUnconditional() { return this == JMP || this == RET; }
+
+  /**
+   * @return Whether the instruction is a conditional move.
+   */
+  boolean isConditionalMove() { return compareTo(CMOVE) >= 0 && compareTo(CMOVLE) <= 0; }
+
+  /**
+   * @return Whether the instruction sets a byte to whether a condition holds.
+   */
+  boolean isConditionalSet() { return compareTo(SETE) >= 0 && compareTo(SETLE) <= 0; }
+
+  /**
+   * @return The SETcc on the same condition as this conditional move, or null if this isn't one.
+   */
+  Opcode conditionalSet() {
+    return isConditionalMove() ? values()[SETE.ordinal() + ordinal() - CMOVE.ordinal()] : null;
+  }
+
+  /**
+   * @return The conditional move on the same condition as this conditional jump, or null if this
+   *         isn't one.
+   */
+  Opcode conditionalMove() {
+    return isConditionalJump() ? values()[CMOVE.ordinal() + ordinal() - JE.ordinal()] : null;
+  }
+
+  /**
+   * @return The conditional move or jump on the same condition once the operands of the cmp before
+   *         it are swapped, as a < b is b > a; or null if this isn't conditional.
+   */
+  Opcode mirrored() {
+    switch (this) {
+      case CMOVG:   return CMOVL;
+      case CMOVL:   return CMOVG;
+      case CMOVGE:  return CMOVLE;
+      case CMOVLE:  return CMOVGE;
+      case JG:      return JL;
+      case JL:      return JG;
+      case JGE:     return JLE;
+      case JLE:     return JGE;
+      default:      return isConditionalMove() || isConditionalJump() ? this : null;
+    }
+  }
+
+  /**
+   * @return The conditional move or jump taken exactly when this one isn't, or null if this isn't
+   *         conditional.
+   */
+  Opcode negated() {
+    switch (this) {
+      case CMOVE:   return CMOVNE;
+      case CMOVNE:  return CMOVE;
+      case CMOVG:   return CMOVLE;
+      case CMOVLE:  return CMOVG;
+      case CMOVL:   return CMOVGE;
+      case CMOVGE:  return CMOVL;
+      case JE:      return JNE;
+      case JNE:     return JE;
+      case JG:      return JLE;
+      case JLE:     return JG;
+      case JL:      return JGE;
+      case JGE:     return JL;
+      default:      return null;
+    }
+  }
+}
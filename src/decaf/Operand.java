@@ -0,0 +1,142 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * Thain, Prof. Douglas. (2015). Introduction to X86-64 Assembly for Compiler Writers. Available:
+ * https://www3.nd.edu/~dthain/courses/cse40243/fall2015/intel-intro.html.
+ * Last accessed 22nd Mar 2017.
+ *
+ */
+
+package decaf;
+
+/**
+ * An operand of an Instruction. Each kind is its own type, so passes over the IR can tell a register
+ * from a constant without parsing text, and toString gives the AT&T syntax the AssemblyPrinter
+ * writes out.
+ */
+interface Operand {
+  /**
+   * One of the unlimited registers the IR is built with, before registers are allocated. Numbered
+   * from 0 in each method, in the order they are handed out, and typed by the value they hold.
+   */
+  final class VirtualRegister implements Operand {
+    VirtualRegister(int id, Symbol.Type type, int width) {
+      this.id = id;
+      this.type = type;
+      this.width = width;
+    }
+
+    final int id;
+    final Symbol.Type type;
+    // The size in bytes of the value held.
+    final int width;
+
+    // Named a0..z0, a1..z1 and so on, in the order they were numbered.
+    @Override
+    public String toString() { return "%" + (char) ('a' + id % 26) + (id / 26); }
+  }
+
+  /**
+   * The general purpose registers of x86_64.
+   */
+  enum PhysicalRegister implements Operand {
+    RAX, RBX, RCX, RDX, RSI, RDI, RBP, RSP, R8, R9, R10, R11, R12, R13, R14, R15;
+
+    // Where callouts expect their first six arguments, in order.
+    static final PhysicalRegister[] ARGUMENTS = { RDI, RSI, RDX, RCX, R8, R9 };
+
+    @Override
+    public String toString() { return "%" + name().toLowerCase(); }
+  }
+
+  /**
+   * The lowest byte of a physical register, which is all a SETcc writes.
+   */
+  final class LowByte implements Operand {
+    LowByte(PhysicalRegister register) { this.register = register; }
+
+    final PhysicalRegister register;
+
+    // %al, %bl, %cl and %dl; %sil, %dil, %bpl and %spl; %r8b to %r15b.
+    @Override
+    public String toString() {
+      String name = register.name().toLowerCase();
+      int ordinal = register.ordinal();
+      if (ordinal <= PhysicalRegister.RDX.ordinal()) return "%" + name.charAt(1) + "l";
+      if (ordinal <= PhysicalRegister.RSP.ordinal()) return "%" + name.substring(1) + "l";
+      return "%" + name + "b";
+    }
+  }
+
+  /**
+   * A constant value.
+   */
+  final class Immediate implements Operand {
+    private Immediate(long value) { this.value = value; }
+
+    private static final Immediate[] SMALL = new Immediate[16];
+    static { for (int i = 0; i < SMALL.length; i++) SMALL[i] = new Immediate(i); }
+
+    final long value;
+
+    /**
+     * @param value The constant.
+     * @return      An Immediate of the value; the small ones used most often are shared.
+     */
+    static Immediate of(long value) {
+      return value >= 0 && value < SMALL.length ? SMALL[(int) value] : new Immediate(value);
+    }
+
+    @Override
+    public String toString() { return "$" + value; }
+  }
+
+  /**
+   * A name in the assembly: the target of a jump or call, or the address of some data. Labels of
+   * loops and IFs are created before they are numbered, so the name is filled in later.
+   */
+  final class Label implements Operand {
+    Label(String name) { this.name = name; }
+
+    Label() { this(null); }
+
+    String name;
+
+    @Override
+    public String toString() { return name; }
+  }
+
+  /**
+   * The memory at the address held in a register, plus a displacement; or the memory at a label
+   * in the data segment, addressed relative to the instruction pointer.
+   */
+  final class Memory implements Operand {
+    Memory(Operand base, long displacement) {
+      this.base = base;
+      this.displacement = displacement;
+      this.symbol = null;
+    }
+
+    Memory(Operand base) { this(base, 0); }
+
+    Memory(Label symbol) {
+      this.base = null;
+      this.displacement = 0;
+      this.symbol = symbol;
+    }
+
+    final Operand base;
+    final long displacement;
+    final Label symbol;
+
+    @Override
+    public String toString() {
+      if (symbol != null) return symbol + "(%rip)";
+      return (displacement == 0 ? "" : displacement) + "(" + base + ")";
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ */
+
+package decaf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Buffered sink for the lines the compiler writes to its output file. Previously every token was
+ * written with its own call to Files.write, which opened, appended to and closed the file once per
+ * token. The sink opens one channel on the first flush and holds it open for the whole run, encoding
+ * lines into a large buffer that is only written out when it fills up or the sink is closed.
+ * Lines are UTF-8 encoded and terminated with the platform line separator, exactly as Files.write
+ * does, and the file is appended to, so the output is byte-for-byte the same as before.
+ */
+public class OutputSink implements Closeable, Appendable {
+  public OutputSink(String outFile) { this.outFile = outFile; }
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final String outFile;
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private FileChannel channel;
+
+  /**
+   * @return The name of the file this sink writes to.
+   */
+  public String getOutFile() { return outFile; }
+
+  /**
+   * Writes a single line of text followed by the platform line separator.
+   * @param line The line to write, without a terminator.
+   */
+  public void println(CharSequence line) throws IOException {
+    write(line);
+    write(System.lineSeparator());
+  }
+
+  /**
+   * Encodes the text into the buffer, draining the buffer to the file every time it fills up.
+   * ASCII, which is almost everything the compiler writes, is copied into the buffer a byte at a
+   * time; the encoder only takes over from the first char that needs it.
+   * @param text The text to write.
+   */
+  public void write(CharSequence text) throws IOException {
+    int length = text.length();
+    int i = 0;
+    for (; i < length; i++) {
+      char c = text.charAt(i);
+      if (c >= 0x80) break;
+      if (!buffer.hasRemaining()) drain();
+      buffer.put((byte) c);
+    }
+    if (i == length) return;
+
+    CharBuffer chars = CharBuffer.wrap(text, i, length);
+    encoder.reset();
+    while (true) {
+      CoderResult result = encoder.encode(chars, buffer, true);
+      if      (result.isOverflow())   drain();
+      else if (result.isUnderflow())  break;
+      else                            result.throwException();
+    }
+  }
+
+  @Override
+  public OutputSink append(CharSequence text) throws IOException {
+    write(text == null ? "null" : text);
+    return this;
+  }
+
+  @Override
+  public OutputSink append(CharSequence text, int start, int end) throws IOException {
+    write((text == null ? "null" : text).subSequence(start, end));
+    return this;
+  }
+
+  @Override
+  public OutputSink append(char c) throws IOException {
+    write(String.valueOf(c));
+    return this;
+  }
+
+  /**
+   * Writes everything buffered so far to the file.
+   */
+  public void flush() throws IOException { drain(); }
+
+  /**
+   * Writes out anything left in the buffer and releases the channel. Safe to call more than once.
+   */
+  public void close() throws IOException {
+    drain();
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  // The file is only created once there is something to put in it, as Files.write would have done.
+  private void drain() throws IOException {
+    buffer.flip();
+    if (buffer.hasRemaining() && channel == null)
+      channel = FileChannel.open(Paths.get(outFile),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    while (buffer.hasRemaining()) channel.write(buffer);
+    buffer.clear();
+  }
+}
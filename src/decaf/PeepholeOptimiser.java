@@ -0,0 +1,248 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ * McKeeman, W. M. (1965). Peephole Optimization. Communications of the ACM, 8(7), 443-444.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * Peephole optimisation[1] of a method once its registers are allocated, when moves between
+ * registers that ended up the same show up as moves to self. A window of a few instructions slides
+ * down each block, and at each position every rule in #RULES that is turned on is tried in turn;
+ * when one rewrites the window, the window moves back one, as the rewrite may have made a match
+ * with the instruction before it. The rules are:
+ *   movself  mov r, r is dropped.
+ *   deadmov  mov a, r straight before a mov to r that doesn't read it is dropped.
+ *   setcc    the mov $0, mov $1 and cmov the LowLevelIRBuilder sets booleans with becomes a SETcc
+ *            of the low byte and a zero extension, which needs no register for the 1.
+ *   xorzero  mov $0, r becomes xor r, r, which is shorter, where the flags it sets aren't read.
+ *   jmpnext  a jmp to the block laid out next, past only empty blocks, is dropped.
+ * The flags are the one thing a rewrite can change beyond its window, so whether they are read
+ * after each block is worked out first, from the flags alone.
+ */
+class PeepholeOptimiser {
+  /**
+   * @param enabled Whether each rule of #RULES is turned on, in the same order.
+   */
+  PeepholeOptimiser(ControlFlowGraph graph, boolean[] enabled) {
+    this.graph = graph;
+    this.enabled = enabled;
+  }
+
+  // Tries a rule at a position of a block, rewriting the block if it matches.
+  private interface Rewrite {
+    boolean apply(PeepholeOptimiser pass, BasicBlock block, int at);
+  }
+
+  // A rule: its name, which is what -opt turns it on and off with, and the width of its window.
+  static final class Rule {
+    Rule(String name, int width, Rewrite rewrite) {
+      this.name = name;
+      this.width = width;
+      this.rewrite = rewrite;
+    }
+
+    final String name;
+    final int width;
+    private final Rewrite rewrite;
+  }
+
+  static final Rule[] RULES = {
+    new Rule("movself", 1, PeepholeOptimiser::moveToSelf),
+    new Rule("deadmov", 2, PeepholeOptimiser::overwrittenMove),
+    new Rule("setcc", 3, PeepholeOptimiser::conditionalMoveOfOne),
+    new Rule("xorzero", 1, PeepholeOptimiser::zeroByXor),
+    new Rule("jmpnext", 1, PeepholeOptimiser::jumpToNext),
+  };
+
+  private final ControlFlowGraph graph;
+  private final boolean[] enabled;
+  // Whether the flags are read after each block, before being set again.
+  private boolean[] flagsLiveOut;
+
+  // The number of times each rule has fired.
+  final int[] fired = new int[RULES.length];
+
+  /**
+   * Slides the window down every block of the method.
+   */
+  void run() {
+    findLiveFlags();
+    for (BasicBlock block : graph.blocks) {
+      List<Instruction> instructions = block.instructions;
+      int at = 0;
+      while (at < instructions.size()) {
+        boolean rewritten = false;
+        for (int r = 0; r < RULES.length && !rewritten; r++) {
+          if (!enabled[r] || at + RULES[r].width > instructions.size()) continue;
+          rewritten = RULES[r].rewrite.apply(this, block, at);
+          if (rewritten) fired[r]++;
+        }
+        if (rewritten) at = Math.max(0, at - 1);
+        else           at++;
+      }
+    }
+  }
+
+  private static boolean moveToSelf(PeepholeOptimiser pass, BasicBlock block, int at) {
+    Instruction move = block.instructions.get(at);
+    if (move.opcode != Opcode.MOV || !isRegister(move.destination)
+        || !sameRegister(move.source, move.destination))
+      return false;
+    block.instructions.remove(at);
+    return true;
+  }
+
+  private static boolean overwrittenMove(PeepholeOptimiser pass, BasicBlock block, int at) {
+    Instruction first = block.instructions.get(at), second = block.instructions.get(at + 1);
+    if (first.opcode != Opcode.MOV || second.opcode != Opcode.MOV || !isRegister(first.destination)
+        || !sameRegister(first.destination, second.destination)
+        || reads(second.source, first.destination))
+      return false;
+    block.instructions.remove(at);
+    return true;
+  }
+
+  // The register the 1 is loaded into is only read by the cmov, so its move goes too.
+  private static boolean conditionalMoveOfOne(PeepholeOptimiser pass, BasicBlock block, int at) {
+    List<Instruction> instructions = block.instructions;
+    Instruction zero = instructions.get(at), one = instructions.get(at + 1);
+    Instruction move = instructions.get(at + 2);
+    if (!move.opcode.isConditionalMove()
+        || !(move.destination instanceof Operand.PhysicalRegister)
+        || !isConstantMove(zero, 0, move.destination) || !isConstantMove(one, 1, move.source)
+        || move.source == move.destination)
+      return false;
+
+    Operand.PhysicalRegister register = (Operand.PhysicalRegister) move.destination;
+    Operand.LowByte low = new Operand.LowByte(register);
+    instructions.set(at, new Instruction(move.opcode.conditionalSet(), low));
+    instructions.set(at + 1, new Instruction(Opcode.MOVZB, low, register));
+    instructions.remove(at + 2);
+    return true;
+  }
+
+  // Whether an instruction moves a given constant into a given physical register.
+  private static boolean isConstantMove(Instruction instruction, long value, Operand register) {
+    return instruction.opcode == Opcode.MOV && instruction.destination == register
+           && register instanceof Operand.PhysicalRegister
+           && instruction.source instanceof Operand.Immediate
+           && ((Operand.Immediate) instruction.source).value == value;
+  }
+
+  private static boolean zeroByXor(PeepholeOptimiser pass, BasicBlock block, int at) {
+    Instruction move = block.instructions.get(at);
+    if (move.opcode != Opcode.MOV || !(move.destination instanceof Operand.PhysicalRegister)
+        || !(move.source instanceof Operand.Immediate)
+        || ((Operand.Immediate) move.source).value != 0
+        || pass.flagsLiveAfter(block, at))
+      return false;
+    block.instructions.set(at, new Instruction(Opcode.XOR, move.destination, move.destination));
+    return true;
+  }
+
+  private static boolean jumpToNext(PeepholeOptimiser pass, BasicBlock block, int at) {
+    List<Instruction> instructions = block.instructions;
+    if (at != instructions.size() - 1 || instructions.get(at).opcode != Opcode.JMP
+        || block.jumpTargets.size() != 1)
+      return false;
+
+    BasicBlock target = block.jumpTargets.get(0), next = block.next;
+    while (next != null && next != target && next.instructions.isEmpty()
+           && next.fallThrough == next.next)
+      next = next.next;
+    if (next != target) return false;
+
+    instructions.remove(at);
+    block.jumpTargets.clear();
+    block.terminated = false;
+    block.fallThrough = block.next;
+    return true;
+  }
+
+  // Whether the flags are read after an instruction, before something sets them again.
+  private boolean flagsLiveAfter(BasicBlock block, int at) {
+    List<Instruction> instructions = block.instructions;
+    for (int i = at + 1; i < instructions.size(); i++) {
+      Opcode opcode = instructions.get(i).opcode;
+      if (readsFlags(opcode))  return true;
+      if (writesFlags(opcode)) return false;
+    }
+    return flagsLiveOut[block.index];
+  }
+
+  /**
+   * The usual backward dataflow, over one bit per block: the flags are live out of a block if they
+   * are read in a successor before being set there, or live out of it in turn.
+   */
+  private void findLiveFlags() {
+    int count = graph.blocks.size();
+    flagsLiveOut = new boolean[count];
+    // Per block: 1 if it reads the flags first, 0 if it sets them first, -1 if neither.
+    int[] first = new int[count];
+    for (int b = 0; b < count; b++) {
+      first[b] = -1;
+      for (Instruction instruction : graph.blocks.get(b).instructions) {
+        if (readsFlags(instruction.opcode))  first[b] = 1;
+        else if (writesFlags(instruction.opcode)) first[b] = 0;
+        if (first[b] >= 0) break;
+      }
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int b = count - 1; b >= 0; b--) {
+        boolean live = false;
+        for (int s : graph.successors[b])
+          live |= first[s] == 1 || (first[s] == -1 && flagsLiveOut[s]);
+        if (live && !flagsLiveOut[b]) {
+          flagsLiveOut[b] = true;
+          changed = true;
+        }
+      }
+    }
+  }
+
+  private static boolean readsFlags(Opcode opcode) {
+    return opcode.isConditionalMove() || opcode.isConditionalSet() || opcode.isConditionalJump();
+  }
+
+  private static boolean writesFlags(Opcode opcode) {
+    switch (opcode) {
+      case ADD: case SUB: case IMUL: case XOR: case CMP: case IDIV: case CALL:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isRegister(Operand operand) {
+    return operand instanceof Operand.PhysicalRegister
+           || operand instanceof Operand.VirtualRegister;
+  }
+
+  private static boolean sameRegister(Operand a, Operand b) {
+    if (a instanceof Operand.VirtualRegister && b instanceof Operand.VirtualRegister)
+      return ((Operand.VirtualRegister) a).id == ((Operand.VirtualRegister) b).id;
+    return a == b && a instanceof Operand.PhysicalRegister;
+  }
+
+  // Whether an operand reads a register, as itself or as the base of its address.
+  private static boolean reads(Operand operand, Operand register) {
+    if (operand instanceof Operand.Memory)
+      return sameRegister(((Operand.Memory) operand).base, register);
+    return sameRegister(operand, register);
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ */
+
+package decaf;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Records what each phase of one compilation cost: wall time, CPU time and bytes allocated by the
+ * compiling thread, read from the ThreadMXBean before and after the phase. Alongside the phases it
+ * keeps counters of the sizes the phases worked on, such as tokens and IR instructions, so that the
+ * cost of a phase can be compared with the size of its input across many compilations.
+ *
+ * Used by Main when -profile is given; the report is written as JSON to <outfile>.profile.json.
+ */
+public class PhaseProfiler {
+  public PhaseProfiler() {
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    measureCpu = threads.isCurrentThreadCpuTimeSupported();
+    measureAllocation = threads.isThreadAllocatedMemorySupported();
+    if (measureCpu && !threads.isThreadCpuTimeEnabled()) threads.setThreadCpuTimeEnabled(true);
+    if (measureAllocation && !threads.isThreadAllocatedMemoryEnabled())
+      threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  private final com.sun.management.ThreadMXBean threads;
+  private final boolean measureCpu;
+  private final boolean measureAllocation;
+
+  // Phases and counters in the order they were first recorded.
+  private final Map<String, Phase> phases = new LinkedHashMap<>();
+  private final Map<String, Long> counters = new LinkedHashMap<>();
+  private Phase current;
+
+  private long startWallNanos, startCpuNanos, startAllocatedBytes;
+
+  /**
+   * Starts timing a phase. Phases do not nest, so this also ends any phase still running. A phase
+   * that is started more than once is reported once, with the cost of every run added together.
+   * @param name  The name to report the phase by.
+   */
+  public void start(String name) {
+    if (current != null) stop();
+    current = phases.computeIfAbsent(name, Phase::new);
+    startWallNanos = System.nanoTime();
+    startCpuNanos = cpuNanos();
+    startAllocatedBytes = allocatedBytes();
+  }
+
+  /**
+   * Ends the phase that is running, if any, and adds what it cost to the phase.
+   */
+  public void stop() {
+    if (current == null) return;
+    current.wallNanos += System.nanoTime() - startWallNanos;
+    current.cpuNanos += cpuNanos() - startCpuNanos;
+    current.allocatedBytes += allocatedBytes() - startAllocatedBytes;
+    current = null;
+  }
+
+  /**
+   * @param name  The name of the counter.
+   * @param value The size to record; replaces any value the counter already had.
+   */
+  public void count(String name, long value) { counters.put(name, value); }
+
+  /**
+   * @param source  The name of the source file that was compiled.
+   * @param target  The target the compilation was run to.
+   * @return        The report, as a JSON object.
+   */
+  public String toJson(String source, String target) {
+    StringBuilder json = new StringBuilder("{\n");
+    json.append("  \"source\": ").append(quote(source)).append(",\n");
+    json.append("  \"target\": ").append(quote(target)).append(",\n");
+
+    json.append("  \"phases\": [");
+    int i = 0;
+    for (Phase phase : phases.values()) {
+      json.append(i++ == 0 ? "\n" : ",\n")
+          .append("    { \"name\": ").append(quote(phase.name))
+          .append(", \"wallNanos\": ").append(phase.wallNanos)
+          .append(", \"cpuNanos\": ").append(measureCpu ? phase.cpuNanos : -1)
+          .append(", \"allocatedBytes\": ").append(measureAllocation ? phase.allocatedBytes : -1)
+          .append(" }");
+    }
+    json.append(phases.isEmpty() ? "],\n" : "\n  ],\n");
+
+    json.append("  \"counters\": {");
+    i = 0;
+    for (Map.Entry<String, Long> counter : counters.entrySet())
+      json.append(i++ == 0 ? "\n" : ",\n")
+          .append("    ").append(quote(counter.getKey())).append(": ").append(counter.getValue());
+    json.append(counters.isEmpty() ? "}\n" : "\n  }\n");
+
+    return json.append("}\n").toString();
+  }
+
+  private long cpuNanos() { return measureCpu ? threads.getCurrentThreadCpuTime() : 0; }
+
+  private long allocatedBytes() {
+    return measureAllocation ? threads.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+  }
+
+  private static String quote(String text) {
+    if (text == null) return "null";
+    StringBuilder quoted = new StringBuilder("\"");
+    for (char c : text.toCharArray()) {
+      if      (c == '"' || c == '\\')  quoted.append('\\').append(c);
+      else if (c < 0x20)               quoted.append(String.format("\\u%04x", (int) c));
+      else                             quoted.append(c);
+    }
+    return quoted.append('"').toString();
+  }
+
+  private static class Phase {
+    Phase(String name) { this.name = name; }
+
+    final String name;
+    long wallNanos;
+    long cpuNanos;
+    long allocatedBytes;
+  }
+}
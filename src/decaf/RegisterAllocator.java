@@ -0,0 +1,221 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ * AMD (2013). AMD64 Architecture Programmer’s Manual Volume 1: Application Programming. Rev 3.20.
+ * Online. p23-109.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+import static decaf.Operand.PhysicalRegister.*;
+
+/**
+ * Maps the virtual registers of a method onto the registers of the machine. Subclasses decide which
+ * register each virtual register gets, or which are spilled to the stack; the work every allocator
+ * shares is done here: giving spilled registers a slot in the frame and loading and storing them
+ * around each instruction that uses them, rewriting the instructions with the registers chosen,
+ * and finally wrapping the method in a prologue and epilogue that set up the frame and save the
+ * callee-saved registers it uses.
+ */
+abstract class RegisterAllocator {
+  RegisterAllocator(MethodIR method, ControlFlowGraph graph) {
+    this.method = method;
+    this.graph = graph;
+  }
+
+  /**
+   * The registers that can be allocated, in the order they are preferred: those a call may
+   * overwrite first, as using them costs nothing in the prologue. %rsp and %rbp hold the stack and
+   * frame pointers, leaving 14.
+   */
+  static final Operand.PhysicalRegister[] ALLOCATABLE = {
+    RAX, RCX, RDX, RSI, RDI, R8, R9, R10, R11, RBX, R12, R13, R14, R15
+  };
+
+  // The registers a method must leave as it found them, under the System V calling convention.
+  static final EnumSet<Operand.PhysicalRegister> CALLEE_SAVED = EnumSet.of(RBX, R12, R13, R14, R15);
+
+  final MethodIR method;
+  final ControlFlowGraph graph;
+  // The number of 8 byte stack slots taken by spilled registers.
+  int slots;
+  // The number of virtual registers spilled, over every round.
+  int spilled;
+  // Registers made to load or store a spilled register, which must never be spilled themselves.
+  final BitSet unspillable = new BitSet();
+
+  /**
+   * Replaces every virtual register in the method with a physical register, spilling where there
+   * are not enough, and adds the prologue and epilogue.
+   */
+  abstract void allocate();
+
+  /**
+   * @return The index of the register in #ALLOCATABLE, or -1 if it can't be allocated.
+   */
+  static int colourOf(Operand.PhysicalRegister register) {
+    for (int i = 0; i < ALLOCATABLE.length; i++) if (ALLOCATABLE[i] == register) return i;
+    return -1;
+  }
+
+  /**
+   * @return A new 8 byte slot in the frame, below the saved frame pointer.
+   */
+  Operand.Memory newSlot() {
+    return new Operand.Memory(RBP, -8L * ++slots);
+  }
+
+  /**
+   * Gives each spilled register its slot: every instruction that reads one is preceded by a load of
+   * it into a new register, and every instruction that writes one is followed by a store. The new
+   * registers only live across the one instruction, so they are never spilled in turn.
+   * @param slotOf    The slot of each spilled virtual register, indexed by id; null if not spilled.
+   * @param liveness  The liveness the spill decision was made with, for what each instruction
+   *                  reads and writes.
+   */
+  void rewriteSpills(Operand.Memory[] slotOf, LivenessAnalysis liveness) {
+    int registers = slotOf.length;
+    int[] temporary = new int[registers];
+    Arrays.fill(temporary, -1);
+
+    for (BasicBlock block : graph.blocks) {
+      List<Instruction> instructions = block.instructions;
+      List<Instruction> rewritten = null;
+      for (int i = 0; i < instructions.size(); i++) {
+        Instruction instruction = instructions.get(i);
+
+        List<Integer> spilledHere = new ArrayList<>(2);
+        for (Operand operand : new Operand[] { instruction.source, instruction.destination }) {
+          int id = registerIn(operand);
+          if (id >= 0 && id < registers && slotOf[id] != null && !spilledHere.contains(id))
+            spilledHere.add(id);
+        }
+        if (spilledHere.isEmpty()) {
+          if (rewritten != null) rewritten.add(instruction);
+          continue;
+        }
+        if (rewritten == null) rewritten = new ArrayList<>(instructions.subList(0, i));
+
+        boolean[] reads = new boolean[spilledHere.size()], writes = new boolean[spilledHere.size()];
+        liveness.forEachUse(instruction, bit -> {
+          int k = spilledHere.indexOf(bit);
+          if (k >= 0) reads[k] = true;
+        });
+        liveness.forEachDef(instruction, bit -> {
+          int k = spilledHere.indexOf(bit);
+          if (k >= 0) writes[k] = true;
+        });
+
+        List<Instruction> stores = new ArrayList<>(2);
+        for (int k = 0; k < spilledHere.size(); k++) {
+          int id = spilledHere.get(k);
+          Operand.VirtualRegister temp = method.newRegister(method.registers.get(id).type);
+          unspillable.set(temp.id);
+          if (reads[k])   rewritten.add(new Instruction(Opcode.MOV, slotOf[id], temp));
+          if (writes[k])  stores.add(new Instruction(Opcode.MOV, temp, slotOf[id]));
+          instruction.source = replace(instruction.source, id, temp);
+          instruction.destination = replace(instruction.destination, id, temp);
+        }
+        rewritten.add(instruction);
+        rewritten.addAll(stores);
+      }
+      if (rewritten != null) {
+        instructions.clear();
+        instructions.addAll(rewritten);
+      }
+    }
+  }
+
+  /**
+   * Rewrites every virtual register with the physical register it was given, and drops the moves
+   * left from a register to itself.
+   * @param assignment  The physical register of each virtual register, indexed by id.
+   */
+  void assign(Operand.PhysicalRegister[] assignment) {
+    for (BasicBlock block : graph.blocks) {
+      Iterator<Instruction> instructions = block.instructions.iterator();
+      while (instructions.hasNext()) {
+        Instruction instruction = instructions.next();
+        instruction.source = assigned(instruction.source, assignment);
+        instruction.destination = assigned(instruction.destination, assignment);
+        if (instruction.opcode == Opcode.MOV && instruction.source == instruction.destination
+            && instruction.source instanceof Operand.PhysicalRegister)
+          instructions.remove();
+      }
+    }
+  }
+
+  /**
+   * Sets up the frame on entry, with room for the spill slots, and saves the callee-saved registers
+   * the method uses; before each return, restores them and the caller's frame. The stack is kept
+   * aligned to 16 bytes at calls, as the System V ABI requires.
+   */
+  void addFrame() {
+    EnumSet<Operand.PhysicalRegister> used = EnumSet.noneOf(Operand.PhysicalRegister.class);
+    for (BasicBlock block : graph.blocks)
+      for (Instruction instruction : block.instructions) {
+        if (instruction.source instanceof Operand.PhysicalRegister)
+          used.add((Operand.PhysicalRegister) instruction.source);
+        if (instruction.destination instanceof Operand.PhysicalRegister)
+          used.add((Operand.PhysicalRegister) instruction.destination);
+      }
+    used.retainAll(CALLEE_SAVED);
+
+    long frame = 8L * slots;
+    if ((frame + 8L * used.size()) % 16 != 0) frame += 8;
+
+    List<Instruction> prologue = new ArrayList<>();
+    prologue.add(new Instruction(Opcode.PUSH, RBP));
+    prologue.add(new Instruction(Opcode.MOV, RSP, RBP));
+    if (frame > 0) prologue.add(new Instruction(Opcode.SUB, Operand.Immediate.of(frame), RSP));
+    for (Operand.PhysicalRegister register : used) prologue.add(new Instruction(Opcode.PUSH, register));
+    method.first.instructions.addAll(0, prologue);
+
+    List<Operand.PhysicalRegister> restore = new ArrayList<>(used);
+    Collections.reverse(restore);
+    for (BasicBlock block : graph.blocks) {
+      ListIterator<Instruction> instructions = block.instructions.listIterator();
+      while (instructions.hasNext()) {
+        if (instructions.next().opcode != Opcode.RET) continue;
+        instructions.previous();
+        for (Operand.PhysicalRegister register : restore)
+          instructions.add(new Instruction(Opcode.POP, register));
+        instructions.add(new Instruction(Opcode.LEAVE));
+        instructions.next();
+      }
+    }
+  }
+
+  /**
+   * @return The id of the virtual register an operand is, or holds the address in; otherwise -1.
+   */
+  static int registerIn(Operand operand) {
+    if (operand instanceof Operand.Memory) operand = ((Operand.Memory) operand).base;
+    return operand instanceof Operand.VirtualRegister ? ((Operand.VirtualRegister) operand).id : -1;
+  }
+
+  private static Operand replace(Operand operand, int id, Operand.VirtualRegister with) {
+    if (registerIn(operand) != id)                return operand;
+    if (operand instanceof Operand.Memory)
+      return new Operand.Memory(with, ((Operand.Memory) operand).displacement);
+    return with;
+  }
+
+  private static Operand assigned(Operand operand, Operand.PhysicalRegister[] assignment) {
+    int id = registerIn(operand);
+    if (id < 0)                                   return operand;
+    if (operand instanceof Operand.Memory)
+      return new Operand.Memory(assignment[id], ((Operand.Memory) operand).displacement);
+    return assignment[id];
+  }
+}
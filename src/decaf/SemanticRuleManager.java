@@ -16,9 +16,14 @@ import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.RuleContext;
 import java6G6Z1010.tools.CLI.*;
 import java.util.*;
+import java.io.PrintStream;
 
 class SemanticRuleManager extends DecafParserBaseListener {
-  public SemanticRuleManager(ErrorHandler errorHandler) { this.errorHandler = errorHandler; }
+  public SemanticRuleManager(ErrorHandler errorHandler, CLI cli, PrintStream out) {
+    this.errorHandler = errorHandler;
+    this.cli = cli;
+    this.out = out;
+  }
 
   ParseTreeProperty<Scope> scopes = new ParseTreeProperty<>();
   ParseTreeProperty<Symbol.Type> exprTypes = new ParseTreeProperty<>();
@@ -26,6 +31,9 @@ class SemanticRuleManager extends DecafParserBaseListener {
   GlobalScope globalScope;
   Scope currentScope;
   ErrorHandler errorHandler;
+  CLI cli;
+  PrintStream out;
+  int symbolsDefined;
 
   /**
    * Creates the global scope and sets it to the current scope.
@@ -46,7 +54,7 @@ class SemanticRuleManager extends DecafParserBaseListener {
       errorHandler.handleError("cannot find main()", ctx.start);
     else if (!mainMethod.formalParameters.isEmpty())
       errorHandler.handleError("main() cannot take parameters", ctx.start);
-    if (CLI.debug) System.out.println(currentScope.toString());
+    if (cli.debug) out.println(currentScope.toString());
   }
 
   /**
@@ -65,7 +73,7 @@ class SemanticRuleManager extends DecafParserBaseListener {
         VariableSymbol newVariableSymbol = 
           new VariableSymbol(identifierName, Symbol.getType(ctx.type().start.getType()));
 
-        currentScope.define(newVariableSymbol);
+        define(currentScope, newVariableSymbol);
       }
       else
         errorHandler.handleError(
@@ -81,7 +89,7 @@ class SemanticRuleManager extends DecafParserBaseListener {
         arrayDecl.IDENTIFIER().getText(), Symbol.getType(ctx.type().start.getType()), 
         Integer.parseInt(arrayDecl.INTLITERAL().getText()));
       
-      currentScope.define(newArrayVariableSymbol);      
+      define(currentScope, newArrayVariableSymbol);      
     }
   }
 
@@ -124,13 +132,13 @@ class SemanticRuleManager extends DecafParserBaseListener {
           new VariableSymbol(((TerminalNode) identifierListItr.next()).getText(),
           Symbol.getType(((DecafParser.TypeContext) identifierTypesItr.next()).start.getType()));
 
-        newMethodScope.define(newVariableSymbol);
+        define(newMethodScope, newVariableSymbol);
 
       }
       // If the method doesn't need to return a value then we don't need to look for a return
       if (newMethodScope.type == Symbol.Type.VOID)  this.returnFound = true;
        
-      currentScope.define(newMethodScope);
+      define(currentScope, newMethodScope);
       currentScope = newMethodScope;
     } else {
       // FOUND THE BUG! If a method exists then no new scope is pushed but one is still popped..
@@ -167,7 +175,7 @@ class SemanticRuleManager extends DecafParserBaseListener {
    * @param ctx The BlockContext object defined in DecafParser. Generated at compile time.
    */
   public void exitBlock(DecafParser.BlockContext ctx) {
-    if (CLI.debug) System.out.println(currentScope.toString());
+    if (cli.debug) out.println(currentScope.toString());
     currentScope = currentScope.getEnclosingScope();
   }
 
@@ -202,7 +210,7 @@ class SemanticRuleManager extends DecafParserBaseListener {
         VariableSymbol newVariableSymbol = new VariableSymbol(identifierName,
             Symbol.getType(ctx.type().start.getType()));
 
-        currentScope.define(newVariableSymbol);
+        define(currentScope, newVariableSymbol);
       }
       else
         errorHandler.handleError(
@@ -221,7 +229,7 @@ class SemanticRuleManager extends DecafParserBaseListener {
       Symbol identifier = currentScope.resolve(identifierName);
       if (identifier == null)  {
         VariableSymbol newVariableSymbol = new VariableSymbol(identifierName, Symbol.Type.INT);
-        currentScope.define(newVariableSymbol);  
+        define(currentScope, newVariableSymbol);  
       }
     }
   }
@@ -413,8 +421,8 @@ class SemanticRuleManager extends DecafParserBaseListener {
    */
   public void exitMethodCall(DecafParser.MethodCallContext ctx) {
     if (ctx.CALLOUT() != null) {
-      if (CLI.debug)
-        System.out.println("CALLOUT to library function: " + ctx.STRINGLITERAL().getText());
+      if (cli.debug)
+        out.println("CALLOUT to library function: " + ctx.STRINGLITERAL().getText());
     } else {
       // 2. No identifier is used before it is declared.
       String methodName = ctx.methodName().IDENTIFIER().getText();
@@ -483,7 +491,7 @@ class SemanticRuleManager extends DecafParserBaseListener {
 
   /**
    * Whenever an expr is encountered, it's type is added to the exprTypes HashMap, and it's value
-   * is added to the exprValues HashMap located in Main.
+   * is added to the exprValues HashMap that is handed on to the LowLevelIRBuilder.
    * @param ctx The ExprContext object defined in DecafParser. Generated at compile time.
    */
   public void enterExpr(DecafParser.ExprContext ctx) {
@@ -494,15 +502,15 @@ class SemanticRuleManager extends DecafParserBaseListener {
     }
     else if (ctx.INTLITERAL()     != null) {
       exprTypes.put(ctx, Symbol.Type.INT);
-      Main.exprValues.put(ctx, ctx.INTLITERAL().getText());
+      exprValues.put(ctx, ctx.INTLITERAL().getText());
     }
     else if (ctx.BOOLEANLITERAL() != null) {
       exprTypes.put(ctx, Symbol.Type.BOOLEAN);
-      Main.exprValues.put(ctx, ctx.BOOLEANLITERAL().getText());
+      exprValues.put(ctx, ctx.BOOLEANLITERAL().getText());
     }
     else if (ctx.CHARLITERAL()    != null) { 
       exprTypes.put(ctx, Symbol.Type.INT);
-      Main.exprValues.put(ctx, ctx.CHARLITERAL().getText().substring(1,2));
+      exprValues.put(ctx, ctx.CHARLITERAL().getText().substring(1,2));
     }
     else if (ctx.methodCall()     != null) {
       // Callouts return type INT. So the type of the expression containing it will be INT too.
@@ -593,4 +601,14 @@ class SemanticRuleManager extends DecafParserBaseListener {
       }
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Adds a Symbol to a scope, keeping count of how many have been defined for -profile.
+   * @param scope   The scope to define the Symbol in.
+   * @param symbol  The Symbol to define.
+   */
+  private void define(Scope scope, Symbol symbol) {
+    scope.define(symbol);
+    symbolsDefined++;
+  }
+}
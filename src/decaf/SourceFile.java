@@ -0,0 +1,209 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ */
+
+package decaf;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * The source code of one compilation, read into memory exactly once. Files are memory-mapped, so the
+ * bytes are never copied onto the heap; the Lexer reads them through a CharStream over the mapped
+ * buffer and the ErrorHandler takes its source lines from the same buffer. The index of where each
+ * line starts is only built when the first error asks for a line, so a clean compile never pays
+ * for it.
+ */
+public class SourceFile {
+  private SourceFile(ByteBuffer data, String name) {
+    this.data = data;
+    this.name = name;
+  }
+
+  private final ByteBuffer data;
+  private final String name;
+  private int[] lineStarts;
+
+  /**
+   * Maps a file into memory. The mapping outlives the channel, which is closed straight away.
+   * @param fileName  The name of the file to map.
+   */
+  public static SourceFile map(String fileName) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+      return new SourceFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), fileName);
+    }
+  }
+
+  /**
+   * Reads a stream that cannot be mapped, such as stdin, into a buffer on the heap.
+   * @param stream  The stream to read to the end.
+   * @param name    The name to report the source by.
+   */
+  public static SourceFile read(InputStream stream, String name) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] chunk = new byte[1 << 16];
+    for (int n = stream.read(chunk); n != -1; n = stream.read(chunk)) bytes.write(chunk, 0, n);
+    return wrap(bytes.toByteArray(), name);
+  }
+
+  /**
+   * @param bytes The source code.
+   * @param name  The name to report the source by.
+   */
+  public static SourceFile wrap(byte[] bytes, String name) {
+    return new SourceFile(ByteBuffer.wrap(bytes), name);
+  }
+
+  /**
+   * @return The name of the source.
+   */
+  public String getName() { return name; }
+
+  /**
+   * @return The length of the source in bytes.
+   */
+  public int size() { return data.limit(); }
+
+  /**
+   * Decaf programs are plain ASCII, in which case each byte is one char and the Lexer reads the
+   * buffer directly. Anything else is decoded with the default charset, as ANTLRInputStream would
+   * have done, so that tokens keep the same text.
+   * @return A CharStream for the Lexer to read the source from.
+   */
+  public CharStream charStream() {
+    for (int i = 0; i < data.limit(); i++)
+      if (data.get(i) < 0) {
+        CharBuffer chars = Charset.defaultCharset().decode(data.duplicate());
+        char[] text = new char[chars.remaining()];
+        chars.get(text);
+        ANTLRInputStream stream = new ANTLRInputStream(text, text.length);
+        stream.name = name;
+        return stream;
+      }
+    return new ByteCharStream();
+  }
+
+  /**
+   * Returns a line of the source, split on the same line terminators as Files.readAllLines.
+   * @param lineNumber  The number of the line, starting at 1.
+   * @return            The text of the line without its terminator, or "" past the end.
+   */
+  public String line(int lineNumber) {
+    if (lineStarts == null) lineStarts = indexLines();
+    if (lineNumber < 1 || lineNumber >= lineStarts.length) return "";
+
+    int start = lineStarts[lineNumber - 1];
+    int end = lineStarts[lineNumber];
+    // Step back over the terminator that ends this line, if it has one.
+    if (end > start && data.get(end - 1) == '\n') end--;
+    if (end > start && data.get(end - 1) == '\r') end--;
+
+    return decode(start, end, StandardCharsets.UTF_8);
+  }
+
+  // lineStarts[i] is the offset of the first byte of line i + 1, and the last entry is the offset
+  // just past the end of the final line.
+  private int[] indexLines() {
+    int[] starts = new int[64];
+    int lines = 0;
+    int limit = data.limit();
+    starts[lines++] = 0;
+
+    for (int i = 0; i < limit; i++) {
+      byte b = data.get(i);
+      if (b == '\r' && i + 1 < limit && data.get(i + 1) == '\n') i++;
+      if (b == '\n' || b == '\r') {
+        if (lines == starts.length) starts = Arrays.copyOf(starts, lines * 2);
+        starts[lines++] = i + 1;
+      }
+    }
+    // A final line without a terminator still counts as a line.
+    if (starts[lines - 1] < limit) {
+      if (lines == starts.length) starts = Arrays.copyOf(starts, lines + 1);
+      starts[lines++] = limit;
+    }
+    return Arrays.copyOf(starts, lines);
+  }
+
+  private String decode(int start, int end, Charset charset) {
+    ByteBuffer slice = data.duplicate();
+    slice.position(start);
+    slice.limit(end);
+    return charset.decode(slice).toString();
+  }
+
+  /**
+   * CharStream over the bytes of an ASCII source. Follows the behaviour of ANTLRInputStream exactly,
+   * it just reads its chars out of the buffer instead of out of a char array copied from it.
+   */
+  private class ByteCharStream implements CharStream {
+    private final int n = data.limit();
+    private int p = 0;
+
+    @Override
+    public void consume() {
+      if (p >= n) throw new IllegalStateException("cannot consume EOF");
+      p++;
+    }
+
+    @Override
+    public int LA(int i) {
+      if (i == 0) return 0; // undefined
+      if (i < 0) i++;       // e.g., translate LA(-1) to use offset i=0; then data[p+0-1]
+
+      int index = p + i - 1;
+      if (index < 0 || index >= n) return IntStream.EOF;
+      return data.get(index);
+    }
+
+    @Override
+    public int mark() { return -1; }
+
+    @Override
+    public void release(int marker) { }
+
+    @Override
+    public int index() { return p; }
+
+    @Override
+    public void seek(int index) {
+      // Seeking forward has to consume so that the line and column stay correct.
+      if (index <= p) {
+        p = index;
+        return;
+      }
+      index = Math.min(index, n);
+      while (p < index) consume();
+    }
+
+    @Override
+    public int size() { return n; }
+
+    @Override
+    public String getSourceName() { return name == null ? IntStream.UNKNOWN_SOURCE_NAME : name; }
+
+    @Override
+    public String getText(Interval interval) {
+      int start = interval.a;
+      int stop = Math.min(interval.b, n - 1);
+      if (start >= n || stop < start) return "";
+      return decode(start, stop + 1, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() { return decode(0, n, StandardCharsets.ISO_8859_1); }
+  }
+}
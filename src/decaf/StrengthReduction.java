@@ -0,0 +1,387 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ * Cooper, Keith D., Simpson, L. Taylor and Vick, Christopher A. (2001). Operator Strength
+ * Reduction. ACM Transactions on Programming Languages and Systems, 23(5), 603-625.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * Induction variable strength reduction for array accesses in loops[1]. The LowLevelIRBuilder
+ * works out the address of A[i] from scratch at every access: lea of the array, then (i - 1) * 4
+ * added to it. Where i is an induction variable of the loop, the address is too, so it can be kept
+ * in a register of its own that is set up once before the loop and moved on by 4 * step each time
+ * i is; the access then reads that register, and the arithmetic that worked the address out is
+ * left dead for DeadCodeElimination.
+ *
+ * A basic induction variable is a register the loop writes only once, adding or subtracting a
+ * constant, as the counter of a FOR loop is. Each block of the loop is walked forwards working out
+ * which registers hold label + a * i + b for a basic induction variable i and constants a and b,
+ * through the moves, additions, subtractions and multiplications by constants the builder makes.
+ * A register only has such a form from where the block sets it until i or it is next written, so
+ * nothing is assumed of values coming from other blocks. A memory operand whose address register
+ * has a form with a nonzero a is given a pointer that always holds label + a * i + b0, with the
+ * difference b - b0 as its displacement, so that x[i - 1], x[i] and x[i + 1] share one pointer.
+ * Pointers are updated straight after the write to i, so they hold that value at every point of
+ * the loop, whichever block an access is in.
+ */
+class StrengthReduction {
+  StrengthReduction(MethodIR method, ControlFlowGraph graph) {
+    this.method = method;
+    this.graph = graph;
+  }
+
+  private final MethodIR method;
+  private ControlFlowGraph graph;
+  private LivenessAnalysis liveness;
+
+  // For the loop being worked on, where stamp matches: the number of writes to each register, the
+  // instruction that writes it, and for a basic induction variable, what is added to it.
+  private int[] writeStamp, writes;
+  private Instruction[] writer;
+  private long[] step;
+  private int stamp;
+  private final BitSet inductionVariables = new BitSet();
+
+  // The form label + a * iv + b each register has at the current point of the block being walked,
+  // valid where formStamp is visit.
+  private int[] formStamp, formIv;
+  private long[] formA, formB;
+  private Operand.Label[] formLabel;
+  private int visit;
+  private final List<Integer> formed = new ArrayList<>();
+
+  private final List<Pointer> pointers = new ArrayList<>();
+
+  // The numbers of memory operands rewritten and pointers made.
+  int reduced, pointersAdded;
+
+  // A register holding label + a * iv + b throughout a loop.
+  private static final class Pointer {
+    Pointer(Operand.VirtualRegister register, Operand.Label label, int iv, long a, long b) {
+      this.register = register;
+      this.label = label;
+      this.iv = iv;
+      this.a = a;
+      this.b = b;
+    }
+
+    final Operand.VirtualRegister register;
+    final Operand.Label label;
+    final int iv;
+    final long a, b;
+  }
+
+  /**
+   * Reduces the array accesses of every loop of the method.
+   * @return The control flow graph of the method afterwards.
+   */
+  ControlFlowGraph run() {
+    if (graph.loops.isEmpty()) return graph;
+
+    boolean added = false;
+    for (ControlFlowGraph.Loop loop : graph.loops) added |= graph.addPreheader(loop);
+    if (added) graph = new ControlFlowGraph(method);
+
+    liveness = new LivenessAnalysis(graph);
+    int registers = liveness.registers;
+    writeStamp = new int[registers];
+    writes = new int[registers];
+    writer = new Instruction[registers];
+    step = new long[registers];
+    formStamp = new int[registers];
+    formIv = new int[registers];
+    formA = new long[registers];
+    formB = new long[registers];
+    formLabel = new Operand.Label[registers];
+
+    for (ControlFlowGraph.Loop loop : graph.loops) {
+      BasicBlock preheader = graph.preheaderOf(loop);
+      if (preheader != null) reduce(loop, preheader);
+    }
+    return graph;
+  }
+
+  private void reduce(ControlFlowGraph.Loop loop, BasicBlock preheader) {
+    if (LivenessAnalysis.get(liveness.liveIn[loop.header], liveness.flags)) return;
+    if (!findInductionVariables(loop)) return;
+
+    pointers.clear();
+    for (int b = loop.body.nextSetBit(0); b >= 0; b = loop.body.nextSetBit(b + 1)) {
+      visit++;
+      formed.clear();
+      for (Instruction instruction : graph.blocks.get(b).instructions) {
+        instruction.source = rewrite(instruction.source);
+        instruction.destination = rewrite(instruction.destination);
+        track(instruction);
+      }
+    }
+    if (pointers.isEmpty()) return;
+
+    List<Instruction> setUp = new ArrayList<>();
+    for (Pointer pointer : pointers) setUp(pointer, setUp);
+    List<Instruction> instructions = preheader.instructions;
+    int at = instructions.size();
+    if (at > 0 && instructions.get(at - 1).opcode == Opcode.JMP) at--;
+    instructions.addAll(at, setUp);
+
+    // Each pointer moves on straight after its induction variable does.
+    for (int b = loop.body.nextSetBit(0); b >= 0; b = loop.body.nextSetBit(b + 1)) {
+      List<Instruction> block = graph.blocks.get(b).instructions;
+      for (int i = 0; i < block.size(); i++) {
+        Instruction instruction = block.get(i);
+        int iv = writtenRegister(instruction);
+        if (iv < 0 || !inductionVariables.get(iv) || writer[iv] != instruction) continue;
+        for (Pointer pointer : pointers)
+          if (pointer.iv == iv)
+            block.add(++i, new Instruction(Opcode.ADD, Operand.Immediate.of(pointer.a * step[iv]),
+                                           pointer.register));
+      }
+    }
+  }
+
+  /**
+   * Finds the registers the loop only writes by adding or subtracting a constant, where the flags
+   * that sets aren't read, so the add for each pointer can follow it.
+   * @return Whether there are any.
+   */
+  private boolean findInductionVariables(ControlFlowGraph.Loop loop) {
+    stamp++;
+    inductionVariables.clear();
+    for (int b = loop.body.nextSetBit(0); b >= 0; b = loop.body.nextSetBit(b + 1)) {
+      for (Instruction instruction : graph.blocks.get(b).instructions) {
+        liveness.forEachDef(instruction, bit -> {
+          if (bit >= liveness.registers) return;
+          if (writeStamp[bit] != stamp) {
+            writeStamp[bit] = stamp;
+            writes[bit] = 0;
+          }
+          writes[bit]++;
+          writer[bit] = instruction;
+        });
+      }
+    }
+
+    for (int b = loop.body.nextSetBit(0); b >= 0; b = loop.body.nextSetBit(b + 1)) {
+      List<Instruction> instructions = graph.blocks.get(b).instructions;
+      boolean[] flagsLive = { LivenessAnalysis.get(liveness.liveOut[b], liveness.flags) };
+      for (int i = instructions.size() - 1; i >= 0; i--) {
+        Instruction instruction = instructions.get(i);
+        int r = writtenRegister(instruction);
+        if (r >= 0 && r < liveness.registers && writes[r] == 1 && !flagsLive[0]
+            && (instruction.opcode == Opcode.ADD || instruction.opcode == Opcode.SUB)
+            && instruction.source instanceof Operand.Immediate
+            && LivenessAnalysis.get(liveness.liveIn[loop.header], r)) {
+          long constant = ((Operand.Immediate) instruction.source).value;
+          step[r] = instruction.opcode == Opcode.ADD ? constant : -constant;
+          inductionVariables.set(r);
+        }
+        liveness.forEachDef(instruction, bit -> {
+          if (bit == liveness.flags) flagsLive[0] = false;
+        });
+        liveness.forEachUse(instruction, bit -> {
+          if (bit == liveness.flags) flagsLive[0] = true;
+        });
+      }
+    }
+    return !inductionVariables.isEmpty();
+  }
+
+  /**
+   * @return The operand, or if it is memory addressed by a register with a form that depends on an
+   *         induction variable, the same memory addressed by the pointer for that form.
+   */
+  private Operand rewrite(Operand operand) {
+    if (!(operand instanceof Operand.Memory)) return operand;
+    Operand.Memory memory = (Operand.Memory) operand;
+    if (!(memory.base instanceof Operand.VirtualRegister)) return operand;
+    int r = ((Operand.VirtualRegister) memory.base).id;
+    if (!hasForm(r) || formIv[r] < 0 || formA[r] == 0) return operand;
+
+    Pointer pointer = pointerFor(formLabel[r], formIv[r], formA[r], formB[r]);
+    if (pointer == null) return operand;
+    long displacement = memory.displacement + formB[r] - pointer.b;
+    if (!fitsImmediate(displacement)) return operand;
+    reduced++;
+    return new Operand.Memory(pointer.register, displacement);
+  }
+
+  // The pointer for a form, made if there isn't one yet, or null if one can't be set up.
+  private Pointer pointerFor(Operand.Label label, int iv, long a, long b) {
+    for (Pointer pointer : pointers)
+      if (pointer.iv == iv && pointer.a == a && sameLabel(pointer.label, label)) return pointer;
+    if (!fitsImmediate(a) || !fitsImmediate(b) || !fitsImmediate(a * step[iv])) return null;
+
+    Pointer pointer = new Pointer(method.newRegister(Symbol.Type.INT), label, iv, a, b);
+    pointers.add(pointer);
+    pointersAdded++;
+    return pointer;
+  }
+
+  // The instructions that set a pointer up from the value its induction variable enters with.
+  private void setUp(Pointer pointer, List<Instruction> instructions) {
+    Operand.VirtualRegister iv = method.registers.get(pointer.iv);
+    Operand.VirtualRegister scaled = pointer.label == null
+                                     ? pointer.register : method.newRegister(Symbol.Type.INT);
+    instructions.add(new Instruction(Opcode.MOV, iv, scaled));
+    if (pointer.a != 1)
+      instructions.add(new Instruction(Opcode.IMUL, Operand.Immediate.of(pointer.a), scaled));
+    if (pointer.b != 0)
+      instructions.add(new Instruction(Opcode.ADD, Operand.Immediate.of(pointer.b), scaled));
+    if (pointer.label != null) {
+      instructions.add(new Instruction(Opcode.LEA, pointer.label, pointer.register));
+      instructions.add(new Instruction(Opcode.ADD, scaled, pointer.register));
+    }
+  }
+
+  /**
+   * Works out the form of the register an instruction writes from the forms of what it reads.
+   * Writing an induction variable ends the forms that depend on it.
+   */
+  private void track(Instruction instruction) {
+    int d = writtenRegister(instruction);
+    if (d < 0 || d >= formStamp.length) return;
+    if (inductionVariables.get(d)) {
+      for (int r : formed) if (formStamp[r] == visit && formIv[r] == d) formStamp[r] = 0;
+      return;
+    }
+
+    Operand source = instruction.source;
+    boolean known;
+    switch (instruction.opcode) {
+      case MOV:
+        known = setForm(d, source);
+        break;
+      case LEA:
+        known = source instanceof Operand.Label;
+        if (known) setForm(d, (Operand.Label) source, -1, 0, 0);
+        break;
+      case ADD: case SUB:
+        known = hasForm(d) && combine(d, source, instruction.opcode == Opcode.SUB);
+        break;
+      case IMUL:
+        known = hasForm(d) && scale(d, source);
+        break;
+      default:
+        known = false;
+        break;
+    }
+    if (!known) formStamp[d] = 0;
+  }
+
+  // Gives d the form of an operand, if it has one.
+  private boolean setForm(int d, Operand operand) {
+    if (operand instanceof Operand.Immediate) {
+      setForm(d, null, -1, 0, ((Operand.Immediate) operand).value);
+      return true;
+    }
+    if (!(operand instanceof Operand.VirtualRegister)) return false;
+    int r = ((Operand.VirtualRegister) operand).id;
+    if (!hasForm(r)) return false;
+    setForm(d, formLabel[r], formIv[r], formA[r], formB[r]);
+    return true;
+  }
+
+  // d becomes d + operand, or d - operand.
+  private boolean combine(int d, Operand operand, boolean subtract) {
+    Operand.Label label;
+    int iv;
+    long a, b;
+    if (operand instanceof Operand.Immediate) {
+      label = null;
+      iv = -1;
+      a = 0;
+      b = ((Operand.Immediate) operand).value;
+    }
+    else if (operand instanceof Operand.VirtualRegister
+             && hasForm(((Operand.VirtualRegister) operand).id)) {
+      int r = ((Operand.VirtualRegister) operand).id;
+      label = formLabel[r];
+      iv = formIv[r];
+      a = formA[r];
+      b = formB[r];
+    }
+    else return false;
+
+    if (label != null && (subtract || formLabel[d] != null)) return false;
+    if (iv >= 0 && formIv[d] >= 0 && iv != formIv[d]) return false;
+    if (subtract) {
+      a = -a;
+      b = -b;
+    }
+    setForm(d, label != null ? label : formLabel[d], iv >= 0 ? iv : formIv[d], formA[d] + a,
+            formB[d] + b);
+    return true;
+  }
+
+  // d becomes d * operand, where one of them is a constant and neither is an address.
+  private boolean scale(int d, Operand operand) {
+    long factor;
+    if (operand instanceof Operand.Immediate) factor = ((Operand.Immediate) operand).value;
+    else if (operand instanceof Operand.VirtualRegister
+             && hasForm(((Operand.VirtualRegister) operand).id)) {
+      int r = ((Operand.VirtualRegister) operand).id;
+      if (formLabel[r] != null || formLabel[d] != null) return false;
+      if (formA[r] == 0)      factor = formB[r];
+      else if (formA[d] == 0) {
+        factor = formB[d];
+        setForm(d, null, formIv[r], formA[r], formB[r]);
+      }
+      else return false;
+    }
+    else return false;
+
+    if (formLabel[d] != null) return false;
+    setForm(d, null, formIv[d], formA[d] * factor, formB[d] * factor);
+    return true;
+  }
+
+  private void setForm(int d, Operand.Label label, int iv, long a, long b) {
+    if (formStamp[d] != visit) formed.add(d);
+    formStamp[d] = visit;
+    formLabel[d] = label;
+    formIv[d] = a == 0 ? -1 : iv;
+    formA[d] = a;
+    formB[d] = b;
+  }
+
+  // Whether a register has a form here; an induction variable is always 1 * itself + 0. Registers
+  // made by this pass for earlier loops have none.
+  private boolean hasForm(int r) {
+    if (r >= formStamp.length) return false;
+    if (inductionVariables.get(r) && formStamp[r] != visit) setForm(r, null, r, 1, 0);
+    return formStamp[r] == visit;
+  }
+
+  private static boolean sameLabel(Operand.Label a, Operand.Label b) {
+    return a == null ? b == null : b != null && a.name.equals(b.name);
+  }
+
+  // Whether a value can be the immediate or displacement of an instruction.
+  private static boolean fitsImmediate(long value) {
+    return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+  }
+
+  // The virtual register an instruction writes, or -1.
+  private static int writtenRegister(Instruction instruction) {
+    switch (instruction.opcode) {
+      case MOV: case LEA: case ADD: case SUB: case IMUL:
+      case CMOVE: case CMOVNE: case CMOVG: case CMOVL: case CMOVGE: case CMOVLE:
+        return instruction.destination instanceof Operand.VirtualRegister
+               ? ((Operand.VirtualRegister) instruction.destination).id : -1;
+      default:
+        return -1;
+    }
+  }
+}
@@ -18,13 +18,17 @@ import java.math.BigInteger;
 import java6G6Z1010.tools.CLI.*;
 
 class SyntaxErrorListener extends BaseErrorListener {
-  public SyntaxErrorListener(String inFile, String outFile) {
-    this.inFile = inFile;
-    this.outFile = outFile;
+  public SyntaxErrorListener(CLI cli, OutputSink sink, PrintStream out) {
+    this.cli = cli;
+    this.inFile = cli.infile;
+    this.sink = sink;
+    this.out = out;
   }
 
-  private static String inFile;
-  private static String outFile;
+  private final CLI cli;
+  private final String inFile;
+  private final OutputSink sink;
+  private final PrintStream out;
 
   /**
    * @param Recognizer<?,?> The Recognizer object (Parser/Lexer) that encountered the error.
@@ -46,15 +50,11 @@ class SyntaxErrorListener extends BaseErrorListener {
       + ":" + charPositionInLine + " unexpected char"
       + msg.substring(index));
 
-    if (CLI.debug) System.out.println(lines.toString());
+    if (cli.debug) out.println(lines.toString());
 
     try {
-      // Requires an Iterable<> type object to write to File. Will not
-      // accept a String alone.
-      Files.write(
-        Paths.get(outFile),
-          lines, Charset.forName("UTF-8"),
-          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-    } catch(Exception e2) { System.out.println(outFile + " " + e2); }
+      // Errors share the sink with the tokens so they stay interleaved in the order encountered.
+      for (String errorLine : lines) sink.println(errorLine);
+    } catch(Exception e2) { out.println(sink.getOutFile() + " " + e2); }
   }
 }
\ No newline at end of file
@@ -11,51 +11,69 @@ import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.*;
 import org.antlr.v4.runtime.misc.Utils;
 
+/**
+ * Prints the parse tree as it is walked. The text is appended straight to its destination, such as
+ * the OutputSink of the output file, rather than built up as one String, so printing a large tree
+ * does not need memory in proportion to its size. Indents are cached by level, so each node costs
+ * the same however deep in the tree it is. Listeners cannot throw checked exceptions, so an
+ * IOException from the destination is rethrown as an UncheckedIOException.
+ */
 public class TreePrinterListener implements ParseTreeListener {
   private final List<String> ruleNames;
-  private final StringBuilder builder = new StringBuilder();
+  private final Appendable out;
+  private String[] indents = { "" };
+  private boolean written = false;
   private int level = 0;
 
+  /**
+   * Prints into a StringBuilder, which #toString returns.
+   */
   public TreePrinterListener(Parser parser) {
-      ruleNames = Arrays.asList(parser.getRuleNames());
+      this(Arrays.asList(parser.getRuleNames()), new StringBuilder());
   }
 
   public TreePrinterListener(List<String> ruleNames) {
+      this(ruleNames, new StringBuilder());
+  }
+
+  /**
+   * @param ruleNames The names of the Parser's rules.
+   * @param out       Where to print the tree.
+   */
+  public TreePrinterListener(List<String> ruleNames, Appendable out) {
       this.ruleNames = ruleNames;
+      this.out = out;
   }
 
   @Override
   public void visitTerminal(TerminalNode node) {
-      if (builder.length() > 0) {
-          builder.append(' ');
+      if (written) {
+          append(" ");
       }
 
-      builder.append(Utils.escapeWhitespace(Trees.getNodeText(node, ruleNames), false));
+      append(Utils.escapeWhitespace(Trees.getNodeText(node, ruleNames), false));
   }
 
   @Override
   public void visitErrorNode(ErrorNode node) {
-      if (builder.length() > 0) {
-          builder.append(' ');
+      if (written) {
+          append(" ");
       }
 
-      builder.append(Utils.escapeWhitespace(Trees.getNodeText(node, ruleNames), false));
+      append(Utils.escapeWhitespace(Trees.getNodeText(node, ruleNames), false));
   }
 
   @Override
   public void enterEveryRule(ParserRuleContext ctx) {
-   String indent = "";
-   for (int i = 0; i < level; i++)
-     indent = indent + " ";
-   
       if (ctx.getChildCount() > 0) {
-       builder.append("\n" + indent + "(\n");
+          append("\n");
+          append(indent(level));
+          append("(\n");
           level++;
-          indent = indent + " ";
       }
 
-   builder.append(indent);
-   
+      append(indent(level));
+
       int ruleIndex = ctx.getRuleIndex();
       String ruleName;
       if (ruleIndex >= 0 && ruleIndex < ruleNames.size()) {
@@ -65,26 +83,46 @@ public class TreePrinterListener implements ParseTreeListener {
           ruleName = Integer.toString(ruleIndex);
       }
 
-      builder.append(ruleName);
+      append(ruleName);
   }
 
   @Override
   public void exitEveryRule(ParserRuleContext ctx) {
       if (ctx.getChildCount() > 0) {
           level--;
-       builder.append('\n');
-       String indent = "";
-       for (int i = 0; i < level; i++)
-         indent = indent + " ";
-       
-       builder.append(indent);
-       builder.append(")\n");
-       builder.append(indent);
+          append("\n");
+          append(indent(level));
+          append(")\n");
+          append(indent(level));
       }
   }
 
+  /**
+   * @return What has been printed, if printing into a StringBuilder; otherwise a description of
+   * the destination.
+   */
   @Override
   public String toString() {
-      return builder.toString();
+      return out.toString();
+  }
+
+  private void append(CharSequence text) {
+      if (text.length() == 0) return;
+      try {
+          out.append(text);
+      } catch (IOException e) {
+          throw new UncheckedIOException(e);
+      }
+      written = true;
+  }
+
+  // indents[n] is n spaces. Built once per level rather than once per node.
+  private String indent(int level) {
+      if (level >= indents.length) {
+          String[] grown = Arrays.copyOf(indents, Math.max(level + 1, indents.length * 2));
+          for (int i = indents.length; i < grown.length; i++) grown[i] = grown[i - 1] + " ";
+          indents = grown;
+      }
+      return indents[level];
   }
-}
\ No newline at end of file
+}
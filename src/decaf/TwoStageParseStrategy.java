@@ -0,0 +1,65 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ */
+
+package decaf;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import java.util.*;
+
+/**
+ * Parses a program using the two-stage strategy described in the ANTLR reference (p.313). The first
+ * attempt uses SLL prediction, which is much cheaper than full LL on the left-recursive expr rule,
+ * with a BailErrorStrategy so that the very first syntax error cancels the parse. SLL only fails on
+ * input that is really invalid or, rarely, on input that needs full LL context to be predicted, so
+ * only then is the token stream rewound and parsed again with full LL prediction and the normal
+ * error reporting. A parse that succeeds under SLL is exactly the parse LL would have produced.
+ * Each compilation uses its own strategy, so the fallbacks it counts are those of that compilation
+ * alone, even when several run at once in the CompileServer.
+ */
+public class TwoStageParseStrategy {
+  private int fallbacks;
+
+  /**
+   * @param parser  A parser positioned at the start of its token stream.
+   * @return        The Context object for "program" (defined in DecafParser.g4).
+   */
+  public DecafParser.ProgramContext parse(DecafParser parser) {
+    // Errors from the SLL stage are not real errors until LL has confirmed them, so the listeners
+    // are taken off the parser for the first stage.
+    List<ANTLRErrorListener> listeners = new ArrayList<>(parser.getErrorListeners());
+    ANTLRErrorStrategy errorStrategy = parser.getErrorHandler();
+
+    parser.removeErrorListeners();
+    parser.setErrorHandler(new BailErrorStrategy());
+    parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+
+    try {
+      DecafParser.ProgramContext tree = parser.program();
+      restore(parser, listeners, errorStrategy);
+      return tree;
+    } catch (ParseCancellationException pce) {
+      fallbacks++;
+      restore(parser, listeners, errorStrategy);
+      parser.reset();
+      parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+      return parser.program();
+    }
+  }
+
+  /**
+   * @return The number of parses where SLL failed and the program was reparsed with full LL.
+   */
+  public int fallbacks() { return fallbacks; }
+
+  private static void restore(Parser parser, List<ANTLRErrorListener> listeners,
+                              ANTLRErrorStrategy errorStrategy) {
+    parser.setErrorHandler(errorStrategy);
+    for (ANTLRErrorListener listener : listeners) parser.addErrorListener(listener);
+  }
+}
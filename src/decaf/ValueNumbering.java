@@ -0,0 +1,314 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * [1] Aiken, Professor Alex. (2012). Compilers Stanford (Playlist). [Video files]. Retrieved from
+ * https://www.youtube.com/playlist?list=PLFB9EC7B8FE963EB8. Last accessed 22nd Mar 2017.
+ *
+ * Briggs, Preston, Cooper, Keith D. and Simpson, L. Taylor. (1997). Value Numbering. Software
+ * Practice and Experience, 27(6), 701-724.
+ *
+ */
+
+package decaf;
+
+import java.util.*;
+
+/**
+ * Common subexpression elimination by value numbering[1]. Each value computed is given a number,
+ * so that two computations of the same operation on the same numbered values get the same number.
+ * Where an instruction computes a value some register already holds, it is replaced by a move from
+ * that register; the instructions that loaded its operands are then left dead for
+ * DeadCodeElimination. Operations numbered are ADD, SUB and IMUL, LEA of a label, as used for
+ * array addresses, and loads from memory.
+ *
+ * Within a block this is local value numbering. Across blocks, the blocks are walked down the
+ * dominator tree, as in Briggs, Cooper and Simpson's dominator-based value numbering, with every
+ * table scoped so a block sees only what its dominators computed. The IR isn't in SSA form, so a
+ * register's number only carries into a dominated block if nothing on the way can have changed
+ * it: registers only written in one block, which is true of the temporaries that hold the results
+ * of expressions, keep their numbers; variables, written in many blocks, only keep theirs into a
+ * block whose one predecessor is its dominator, and are numbered afresh anywhere paths join.
+ *
+ * Memory has a generation, which is part of the number of every load. A store, or a call, which
+ * may store anything, starts a new generation, so no load is reused across it; as do joins.
+ */
+class ValueNumbering {
+  ValueNumbering(ControlFlowGraph graph) { this.graph = graph; }
+
+  // The operation of a load, which no opcode stands for.
+  private static final int LOAD = -1;
+
+  private final ControlFlowGraph graph;
+  // The block each register is written in, or -1 if it is written in more than one.
+  private int[] homeBlock;
+  // The value number each register holds, and for a register written in many blocks, the epoch it
+  // was numbered in; it only holds the number while that epoch lasts. 0 is no number.
+  private int[] numberOf, epochOf;
+  private int epoch, epochs, memory, values;
+  // The register holding each value number, if one does; it may since have been written over.
+  private int[] holder = new int[64];
+  private final Map<Expression, Integer> expressions = new HashMap<>();
+  private final Map<Long, Integer> constants = new HashMap<>();
+  private final Map<String, Integer> labels = new HashMap<>();
+
+  // Undo logs, so a block's changes can be taken back once its subtree of the dominator tree is
+  // done with: triples of register, number and epoch; pairs of value number and holder; and
+  // expressions.
+  private int[] registerLog = new int[96], holderLog = new int[64];
+  private int registerLogSize, holderLogSize;
+  private final List<Expression> expressionLog = new ArrayList<>();
+
+  // The number of instructions replaced by a move.
+  int replaced;
+
+  /**
+   * An operation and the numbers of what it works on. For a load, the operands are the number of
+   * the address's register or label, the displacement, and the memory generation.
+   */
+  private static final class Expression {
+    Expression(int operation, long a, long b, long c) {
+      this.operation = operation;
+      this.a = a;
+      this.b = b;
+      this.c = c;
+    }
+
+    final int operation;
+    final long a, b, c;
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Expression)) return false;
+      Expression e = (Expression) other;
+      return operation == e.operation && a == e.a && b == e.b && c == e.c;
+    }
+
+    @Override
+    public int hashCode() { return Objects.hash(operation, a, b, c); }
+  }
+
+  /**
+   * Numbers the values of the method and replaces recomputations of them.
+   */
+  void run() {
+    int registers = 0;
+    for (BasicBlock block : graph.blocks)
+      for (Instruction instruction : block.instructions)
+        registers = Math.max(registers, definedRegister(instruction) + 1);
+    homeBlock = new int[registers];
+    Arrays.fill(homeBlock, -2);
+    for (BasicBlock block : graph.blocks)
+      for (Instruction instruction : block.instructions) {
+        int r = definedRegister(instruction);
+        if (r < 0) continue;
+        homeBlock[r] = homeBlock[r] == -2 || homeBlock[r] == block.index ? block.index : -1;
+      }
+    numberOf = new int[registers];
+    epochOf = new int[registers];
+
+    int count = graph.blocks.size();
+    int[] childCounts = new int[count];
+    for (int b = 1; b < count; b++) if (graph.idom[b] >= 0) childCounts[graph.idom[b]]++;
+    int[][] children = new int[count][];
+    for (int b = 0; b < count; b++) children[b] = new int[childCounts[b]];
+    for (int b = 1; b < count; b++)
+      if (graph.idom[b] >= 0) children[graph.idom[b]][--childCounts[graph.idom[b]]] = b;
+
+    // A block's marks in the undo logs, and the epoch and memory generation it was entered with.
+    int[] registerMark = new int[count], holderMark = new int[count];
+    int[] expressionMark = new int[count];
+    int[] epochMark = new int[count], memoryMark = new int[count];
+    int[] stack = new int[count], nextChild = new int[count];
+    int depth = 0;
+    stack[depth++] = 0;
+    boolean entering = true;
+    while (depth > 0) {
+      int b = stack[depth - 1];
+      if (entering) {
+        registerMark[b] = registerLogSize;
+        holderMark[b] = holderLogSize;
+        expressionMark[b] = expressionLog.size();
+        epochMark[b] = epoch;
+        memoryMark[b] = memory;
+        if (graph.predecessors[b].length != 1) {
+          epoch = ++epochs;
+          memory = ++epochs;
+        }
+        number(graph.blocks.get(b));
+      }
+      if (nextChild[b] < children[b].length) {
+        stack[depth++] = children[b][nextChild[b]++];
+        entering = true;
+      }
+      else {
+        undo(registerMark[b], holderMark[b], expressionMark[b]);
+        epoch = epochMark[b];
+        memory = memoryMark[b];
+        depth--;
+        entering = false;
+      }
+    }
+  }
+
+  private void number(BasicBlock block) {
+    List<Instruction> instructions = block.instructions;
+    for (int i = 0; i < instructions.size(); i++) {
+      Instruction instruction = instructions.get(i);
+      Operand source = instruction.source, destination = instruction.destination;
+      int d = destination instanceof Operand.VirtualRegister
+              ? ((Operand.VirtualRegister) destination).id : -1;
+
+      switch (instruction.opcode) {
+        case MOV:
+          if (d >= 0 && source instanceof Operand.Memory) {
+            Expression load = load((Operand.Memory) source);
+            instructions.set(i, reuse(instruction, load, d));
+          }
+          else if (d >= 0)                              define(d, numberOf(source));
+          else if (destination instanceof Operand.Memory) memory = ++epochs;
+          break;
+        case LEA:
+          if (d >= 0 && source instanceof Operand.Label) {
+            Expression address = new Expression(Opcode.LEA.ordinal(), numberOf(source), 0, 0);
+            instructions.set(i, reuse(instruction, address, d));
+          }
+          else if (d >= 0) define(d, ++values);
+          break;
+        case ADD: case SUB: case IMUL:
+          if (d >= 0) {
+            long a = numberOf(destination), b = numberOf(source);
+            if (instruction.opcode != Opcode.SUB && b < a) {
+              long t = a;
+              a = b;
+              b = t;
+            }
+            Expression arithmetic = new Expression(instruction.opcode.ordinal(), a, b, 0);
+            instructions.set(i, reuse(instruction, arithmetic, d));
+          }
+          else if (destination instanceof Operand.Memory) memory = ++epochs;
+          break;
+        case CALL:
+          memory = ++epochs;
+          break;
+        default:
+          if (definedRegister(instruction) >= 0) define(definedRegister(instruction), ++values);
+          break;
+      }
+    }
+  }
+
+  /**
+   * @return A move from the register holding the value of the expression, if one does, in place of
+   *         the instruction; otherwise the instruction, with the expression given a new number.
+   */
+  private Instruction reuse(Instruction instruction, Expression expression, int destination) {
+    if (expression == null) {
+      define(destination, ++values);
+      return instruction;
+    }
+    Integer known = expressions.get(expression);
+    if (known == null) {
+      expressions.put(expression, ++values);
+      expressionLog.add(expression);
+      define(destination, values);
+      return instruction;
+    }
+    int h = holder(known);
+    define(destination, known);
+    if (h < 0 || h == destination) return instruction;
+    replaced++;
+    return new Instruction(Opcode.MOV, graph.method.registers.get(h), instruction.destination);
+  }
+
+  // The number of a load, or null if its address isn't one that can be numbered.
+  private Expression load(Operand.Memory memoryOperand) {
+    if (memoryOperand.symbol != null)
+      return new Expression(LOAD, numberOf(memoryOperand.symbol), 0, memory);
+    if (memoryOperand.base instanceof Operand.VirtualRegister)
+      return new Expression(LOAD, numberOf(memoryOperand.base), memoryOperand.displacement, memory);
+    return null;
+  }
+
+  /**
+   * @return The value number of an operand. Physical registers and values in memory get a new
+   *         number each time, as nothing is known of where they came from.
+   */
+  private int numberOf(Operand operand) {
+    if (operand instanceof Operand.Immediate)
+      return constants.computeIfAbsent(((Operand.Immediate) operand).value, v -> ++values);
+    if (operand instanceof Operand.Label)
+      return labels.computeIfAbsent(((Operand.Label) operand).name, v -> ++values);
+    if (operand instanceof Operand.VirtualRegister) {
+      int r = ((Operand.VirtualRegister) operand).id;
+      if (r >= numberOf.length) return ++values;
+      int number = current(r);
+      if (number == 0) define(r, number = ++values);
+      return number;
+    }
+    return ++values;
+  }
+
+  private int current(int register) {
+    if (homeBlock[register] < 0 && epochOf[register] != epoch) return 0;
+    return numberOf[register];
+  }
+
+  // The register holding a value number, or -1 if none still does.
+  private int holder(int value) {
+    if (value >= holder.length) return -1;
+    int h = holder[value] - 1;
+    return h >= 0 && current(h) == value ? h : -1;
+  }
+
+  private void define(int register, int value) {
+    if (registerLogSize + 3 > registerLog.length)
+      registerLog = Arrays.copyOf(registerLog, registerLog.length * 2);
+    registerLog[registerLogSize++] = register;
+    registerLog[registerLogSize++] = numberOf[register];
+    registerLog[registerLogSize++] = epochOf[register];
+    numberOf[register] = value;
+    epochOf[register] = epoch;
+
+    // A register written in one block holds its value for longer, so is the better holder.
+    int h = holder(value);
+    if (h >= 0 && (homeBlock[h] >= 0 || homeBlock[register] < 0)) return;
+    if (value >= holder.length)
+      holder = Arrays.copyOf(holder, Math.max(holder.length * 2, value + 1));
+    if (holderLogSize + 2 > holderLog.length)
+      holderLog = Arrays.copyOf(holderLog, holderLog.length * 2);
+    holderLog[holderLogSize++] = value;
+    holderLog[holderLogSize++] = holder[value];
+    holder[value] = register + 1;
+  }
+
+  private void undo(int registerMark, int holderMark, int expressionMark) {
+    while (registerLogSize > registerMark) {
+      int oldEpoch = registerLog[--registerLogSize], oldNumber = registerLog[--registerLogSize];
+      int register = registerLog[--registerLogSize];
+      numberOf[register] = oldNumber;
+      epochOf[register] = oldEpoch;
+    }
+    while (holderLogSize > holderMark) {
+      int oldHolder = holderLog[--holderLogSize];
+      holder[holderLog[--holderLogSize]] = oldHolder;
+    }
+    while (expressionLog.size() > expressionMark)
+      expressions.remove(expressionLog.remove(expressionLog.size() - 1));
+  }
+
+  // The virtual register an instruction writes, or -1.
+  private static int definedRegister(Instruction instruction) {
+    switch (instruction.opcode) {
+      case MOV: case LEA: case ADD: case SUB: case IMUL:
+      case CMOVE: case CMOVNE: case CMOVG: case CMOVL: case CMOVGE: case CMOVLE:
+        return instruction.destination instanceof Operand.VirtualRegister
+               ? ((Operand.VirtualRegister) instruction.destination).id : -1;
+      default:
+        return -1;
+    }
+  }
+}
@@ -0,0 +1,318 @@
+/**
+ * @author Daniel Byers | 13121312
+ *
+ * This code builds on examples provided by the following book:
+ * Parr, Terence (2012). The Definitive ANTLR 4 Reference. USA: The Pragmatic Bookshelf. 322.
+ *
+ * and information gained from the following resources:
+ * Norling, Dr Emma (2017). Decaf Language Reference. Online. p1-8.
+ *
+ */
+
+package decaf;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Writes valid Decaf programs of any size, for benchmarking the compiler and finding where its cost
+ * stops growing linearly with the size of the input. Every program it writes passes the semantic
+ * checks in SemanticRuleManager, so all the phases of the compiler can be run over it:
+ *  - every variable is declared before the statements of its block, and no name is declared twice;
+ *  - methods only call methods declared before them, with arguments of the right types;
+ *  - array indexes are either loop counters or literals that are in bounds;
+ *  - conditions are boolean, operands of arithmetic are ints, and every method returns an int.
+ * The same parameters and seed always produce the same program.
+ *
+ * Usage: java decaf.WorkloadGenerator [-methods N] [-statements N] [-depth N] [-nesting N]
+ *                                     [-arrays N] [-callouts N] [-seed N] [-o file]
+ */
+public class WorkloadGenerator {
+  /**
+   * @param methods         The number of methods besides main.
+   * @param statements      The number of statements at the top level of each method body.
+   * @param expressionDepth How deeply operators are nested in each expression.
+   * @param nestingDepth    How deeply if and for statements are nested inside each other.
+   * @param globalArrays    The number of global int arrays.
+   * @param callouts        The number of callouts to printf in each method.
+   * @param seed            Seed for the choices made while generating.
+   */
+  public WorkloadGenerator(int methods, int statements, int expressionDepth, int nestingDepth,
+                           int globalArrays, int callouts, long seed) {
+    this.methods = methods;
+    this.statements = statements;
+    this.expressionDepth = expressionDepth;
+    this.nestingDepth = nestingDepth;
+    this.globalArrays = globalArrays;
+    this.callouts = callouts;
+    this.random = new Random(seed);
+  }
+
+  // Sizes that are fixed rather than parameters, as they have little effect on the compiler's cost.
+  private static final int ARRAY_SIZE = 100;
+  private static final int INT_LOCALS = 6;
+  private static final int BOOLEAN_LOCALS = 3;
+  private static final int GLOBAL_INTS = 3;
+  private static final int GLOBAL_BOOLEANS = 2;
+  private static final int STATEMENTS_PER_NESTED_BLOCK = 3;
+
+  private final int methods;
+  private final int statements;
+  private final int expressionDepth;
+  private final int nestingDepth;
+  private final int globalArrays;
+  private final int callouts;
+  private final Random random;
+
+  private final StringBuilder program = new StringBuilder();
+  private int currentMethod;
+  // Loop counters of the for statements enclosing the statement being generated, innermost last.
+  private final Deque<String> loopCounters = new ArrayDeque<>();
+
+  public static void main(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    for (int i = 0; i + 1 < args.length; i += 2) options.put(args[i], args[i + 1]);
+
+    WorkloadGenerator generator = new WorkloadGenerator(
+      Integer.parseInt(options.getOrDefault("-methods", "10")),
+      Integer.parseInt(options.getOrDefault("-statements", "20")),
+      Integer.parseInt(options.getOrDefault("-depth", "3")),
+      Integer.parseInt(options.getOrDefault("-nesting", "2")),
+      Integer.parseInt(options.getOrDefault("-arrays", "2")),
+      Integer.parseInt(options.getOrDefault("-callouts", "2")),
+      Long.parseLong(options.getOrDefault("-seed", "1")));
+
+    String source = generator.generate();
+    try {
+      if    (options.containsKey("-o"))
+        Files.write(Paths.get(options.get("-o")), source.getBytes(StandardCharsets.US_ASCII));
+      else
+        System.out.print(source);
+    } catch(IOException e) { System.out.println("I/O Error: " + e); }
+  }
+
+  /**
+   * @return The source code of the whole program.
+   */
+  public String generate() {
+    program.setLength(0);
+    program.append("class Program\n{\n");
+
+    program.append("  int ").append(names("g", GLOBAL_INTS)).append(";\n");
+    program.append("  boolean ").append(names("gb", GLOBAL_BOOLEANS)).append(";\n");
+    for (int i = 0; i < globalArrays; i++)
+      program.append("  int A").append(i).append("[").append(ARRAY_SIZE).append("];\n");
+    program.append("\n");
+
+    for (currentMethod = 0; currentMethod < methods; currentMethod++) method();
+    main();
+
+    program.append("}\n");
+    return program.toString();
+  }
+
+  private void method() {
+    program.append("  int m").append(currentMethod).append("(int p0, int p1, boolean p2)\n  {\n");
+    program.append("    int ").append(names("x", INT_LOCALS));
+    if (nestingDepth > 0) program.append(", ").append(names("i", nestingDepth));
+    program.append(";\n");
+    program.append("    boolean ").append(names("b", BOOLEAN_LOCALS)).append(";\n");
+
+    // Callouts are spread evenly through the top-level statements.
+    int calloutsLeft = callouts;
+    for (int i = 0; i < statements; i++) {
+      if (calloutsLeft > 0
+          && (long) i * callouts / statements != (long) (i + 1) * callouts / statements) {
+        callout("    ");
+        calloutsLeft--;
+      }
+      statement("    ", 0);
+    }
+    while (calloutsLeft-- > 0) callout("    ");
+
+    program.append("    return ").append(intExpr(expressionDepth)).append(";\n  }\n\n");
+  }
+
+  private void main() {
+    program.append("  void main()\n  {\n    int r;\n");
+    for (int i = 0; i < methods; i++) {
+      program.append("    r = m").append(i).append("(").append(random.nextInt(10)).append(", ")
+             .append(random.nextInt(10)).append(", ").append(random.nextBoolean()).append(");\n");
+      program.append("    callout(\"printf\", \"%d\\n\", r);\n");
+    }
+    program.append("  }\n");
+  }
+
+  /**
+   * Writes one statement. If and for statements are only chosen while there is nesting depth left.
+   */
+  private void statement(String indent, int nesting) {
+    int kinds = nesting < nestingDepth ? 9 : 7;
+    switch (random.nextInt(kinds)) {
+      case 0:
+      case 1:
+        program.append(indent).append(intLocal()).append(" = ").append(intExpr(expressionDepth));
+        break;
+      case 2:
+        program.append(indent).append(booleanLocal()).append(" = ")
+               .append(booleanExpr(expressionDepth));
+        break;
+      case 3:
+        program.append(indent).append(intLocal()).append(random.nextBoolean() ? " += " : " -= ")
+               .append(intExpr(expressionDepth));
+        break;
+      case 4:
+        if (globalArrays == 0) {
+          program.append(indent).append("g").append(random.nextInt(GLOBAL_INTS)).append(" = ")
+                 .append(intExpr(expressionDepth));
+          break;
+        }
+        program.append(indent).append(arrayElement()).append(" = ").append(intExpr(expressionDepth));
+        break;
+      case 5:
+        if (globalArrays == 0 || random.nextBoolean()) {
+          program.append(indent).append(methodCall());
+          break;
+        }
+        program.append(indent).append(intLocal()).append(" = ").append(arrayElement());
+        break;
+      case 6:
+        if (!loopCounters.isEmpty() && random.nextInt(4) == 0) {
+          program.append(indent).append("if (").append(booleanExpr(1)).append(") {\n")
+                 .append(indent).append("  ").append(random.nextBoolean() ? "break" : "continue")
+                 .append(";\n").append(indent).append("}\n");
+          return;
+        }
+        program.append(indent).append("g").append(random.nextInt(GLOBAL_INTS)).append(" = ")
+               .append(intExpr(expressionDepth));
+        break;
+      case 7:
+        program.append(indent).append("if (").append(booleanExpr(expressionDepth)).append(")\n");
+        block(indent, nesting + 1);
+        if (random.nextBoolean()) {
+          program.append(indent).append("else\n");
+          block(indent, nesting + 1);
+        }
+        return;
+      default:
+        String counter = "i" + nesting;
+        program.append(indent).append("for ").append(counter).append(" = 0, ")
+               .append(1 + random.nextInt(ARRAY_SIZE)).append("\n");
+        loopCounters.addLast(counter);
+        block(indent, nesting + 1);
+        loopCounters.removeLast();
+        return;
+    }
+    program.append(";\n");
+  }
+
+  private void block(String indent, int nesting) {
+    program.append(indent).append("{\n");
+    for (int i = 0; i < STATEMENTS_PER_NESTED_BLOCK; i++) statement(indent + "  ", nesting);
+    program.append(indent).append("}\n");
+  }
+
+  private void callout(String indent) {
+    program.append(indent).append("callout(\"printf\", \"%d\\n\", ")
+           .append(intExpr(expressionDepth)).append(");\n");
+  }
+
+  /**
+   * Expressions nest along one branch, and occasionally along both, so their size grows roughly
+   * linearly with the depth rather than doubling with it.
+   */
+  private String intExpr(int depth) {
+    if (depth == 0) return intLeaf();
+
+    switch (random.nextInt(8)) {
+      case 0:  return "-" + intLeaf();
+      case 1:  return "(" + intExpr(depth - 1) + " / " + (1 + random.nextInt(9)) + ")";
+      case 2:  return "(" + intExpr(depth - 1) + " % " + (1 + random.nextInt(9)) + ")";
+      // m0 has no earlier method to call, so it makes a binary operator instead.
+      case 3:  return currentMethod > 0 ? intCall() : binaryIntExpr(depth);
+      default: return binaryIntExpr(depth);
+    }
+  }
+
+  /**
+   * A binary arithmetic operator, with one or both operands nested further.
+   */
+  private String binaryIntExpr(int depth) {
+    String[] operators = { " + ", " - ", " * " };
+    String operator = operators[random.nextInt(operators.length)];
+    if (random.nextInt(4) == 0)
+      return "(" + intExpr(depth - 1) + operator + intExpr(depth - 1) + ")";
+    else if (random.nextBoolean())
+      return "(" + intExpr(depth - 1) + operator + intLeaf() + ")";
+    else
+      return "(" + intLeaf() + operator + intExpr(depth - 1) + ")";
+  }
+
+  private String booleanExpr(int depth) {
+    if (depth == 0) return booleanLeaf();
+
+    String[] relations = { " < ", " > ", " <= ", " >= ", " == ", " != " };
+    switch (random.nextInt(5)) {
+      case 0:  return "!" + booleanLeaf();
+      case 1:
+      case 2:  return "(" + intExpr(depth - 1) + relations[random.nextInt(relations.length)]
+                   + intLeaf() + ")";
+      case 3:  return "(" + booleanExpr(depth - 1) + " && " + booleanLeaf() + ")";
+      default: return "(" + booleanLeaf() + " || " + booleanExpr(depth - 1) + ")";
+    }
+  }
+
+  private String intLeaf() {
+    switch (random.nextInt(loopCounters.isEmpty() ? 5 : 6)) {
+      case 0:  return Integer.toString(random.nextInt(100));
+      case 1:  return "p" + random.nextInt(2);
+      case 2:  return "g" + random.nextInt(GLOBAL_INTS);
+      case 5:  return loopCounter();
+      default: return intLocal();
+    }
+  }
+
+  private String booleanLeaf() {
+    switch (random.nextInt(5)) {
+      case 0:  return random.nextBoolean() ? "true" : "false";
+      case 1:  return "p2";
+      case 2:  return "gb" + random.nextInt(GLOBAL_BOOLEANS);
+      default: return booleanLocal();
+    }
+  }
+
+  // Only methods declared before the current one can be resolved by the semantic checks.
+  private String intCall() {
+    return "m" + random.nextInt(currentMethod) + "(" + intLeaf() + ", " + intLeaf() + ", "
+      + booleanLeaf() + ")";
+  }
+
+  private String methodCall() {
+    if (currentMethod > 0) return intCall();
+    return "callout(\"printf\", \"%d\\n\", " + intLeaf() + ")";
+  }
+
+  // Loop counters never exceed the array size, and literal indexes are always in bounds.
+  private String arrayElement() {
+    String index = loopCounters.isEmpty() || random.nextInt(3) == 0
+                 ? Integer.toString(random.nextInt(ARRAY_SIZE)) : loopCounter();
+    return "A" + random.nextInt(globalArrays) + "[" + index + "]";
+  }
+
+  private String loopCounter() {
+    List<String> counters = new ArrayList<>(loopCounters);
+    return counters.get(random.nextInt(counters.size()));
+  }
+
+  private String intLocal() { return "x" + random.nextInt(INT_LOCALS); }
+
+  private String booleanLocal() { return "b" + random.nextInt(BOOLEAN_LOCALS); }
+
+  private static String names(String prefix, int count) {
+    StringJoiner joiner = new StringJoiner(", ");
+    for (int i = 0; i < count; i++) joiner.add(prefix + i);
+    return joiner.toString();
+  }
+}
@@ -6,8 +6,8 @@ import java.util.Vector;
  * A generic command-line interface for a compiler.  This class
  * provides command-line parsing for student projects.  It recognizes
  * the required <tt>-target</tt>, <tt>-debug</tt>, <tt>-opt</tt>, and
- * <tt>-o</tt> switches, and generates a name for input and output
- * files.
+ * <tt>-o</tt> switches, as well as <tt>-profile</tt> and
+ * <tt>-regalloc</tt>, and generates a name for input and output files.
  *
  * @author  Adapted for use at MMU by Emma Norling, from code used in
  * MIT OpenCourseWare unit 6.035 Computer Language Engineering Spring 2010
@@ -49,30 +49,50 @@ public class CLI
      * Vector of String containing the command-line arguments which could
      * not otherwise be parsed.
      */
-    public static Vector<String> extras;
+    public Vector<String> extras;
   
     /**
      * Name of the file to put the output in.
      */
-    public static String outfile;
+    public String outfile;
   
     /**
      * Name of the file to get input from.  This is null if the user didn't
      * provide a file name.
      */
-    public static String infile;
+    public String infile;
 
     /**
      * The target stage.  This should be one of the integer constants
      * defined elsewhere in this package.
      */
-    public static int target;
+    public int target;
 
     /**
      * The debug flag.  This is true if <tt>-debug</tt> was passed on
      * the command line, requesting debugging output.
      */
-    public static boolean debug;
+    public boolean debug;
+
+    /**
+     * The profile flag.  This is true if <tt>-profile</tt> was passed
+     * on the command line, requesting a report of the time and memory
+     * spent in each phase of the compilation.
+     */
+    public boolean profile;
+
+    /**
+     * The register allocator to use, set by <tt>-regalloc=linear</tt>
+     * or <tt>-regalloc=colour</tt>.  Graph colouring gives the better
+     * code; linear scan the faster compile on very large methods.
+     */
+    public String regalloc;
+
+    /**
+     * The optimizations requested with <tt>-opt</tt>, indexed in the
+     * same order as the names passed to parse().
+     */
+    public boolean opts[];
 
     /**
      * Sets up default values for all of the
@@ -80,17 +100,20 @@ public class CLI
      * to null, the target to DEFAULT, and the extras 
      * array to new empty Vector.
      */
-    static
+    public CLI()
     {
 	outfile = null;
 	infile = null;
 	target = DEFAULT;
+	regalloc = "colour";
+	opts = new boolean[0];
 	extras = new Vector<String>();
     }
 
     /**
-     * Parse the command-line arguments.  Sets all of the result fields
-     * accordingly. <BR>
+     * Parse the command-line arguments.  Returns a new CLI with all of
+     * the result fields set accordingly, so that several compilations
+     * can run in one JVM without sharing any state. <BR>
      *
      * <TT>-target <I>target</I></TT> sets the CLI.target field based
      * on the <I>target</I> specified. <BR>
@@ -101,12 +124,23 @@ public class CLI
      *
      * The boolean array opts[] indicates which, if any, of the
      * optimizations in optnames[] should be performed; these arrays
-     * are in the same order.
+     * are in the same order.  <TT>-opt all</TT> turns them all on;
+     * otherwise <TT>-opt</TT> takes a comma separated list of names,
+     * and a name with a leading <TT>-</TT> turns that one off again.
      *
      * @param args Array of arguments passed in to the program's Main
      *   function.
-     * @param optnames Ordered array of recognized optimization names.  */
-    public static void parse(String args[], String optnames[])
+     * @param optnames Ordered array of recognized optimization names.
+     * @return The parsed command line. */
+    public static CLI parse(String args[], String optnames[])
+    {
+	CLI cli = new CLI();
+	cli.opts = new boolean[optnames.length];
+	cli.parseArgs(args, optnames);
+	return cli;
+    }
+
+    private void parseArgs(String args[], String optnames[])
     {
 	int context = 0;
 	String ext = ".out";
@@ -118,10 +152,22 @@ public class CLI
 			context = 0;
 			debug = true;
 		    }
+		else if (args[i].equals("-profile"))
+		    {
+			context = 0;
+			profile = true;
+		    }
+		else if (args[i].startsWith("-regalloc="))
+		    {
+			context = 0;
+			regalloc = args[i].substring("-regalloc=".length()).toLowerCase();
+		    }
 		else if (args[i].equals("-o"))
 		    context = 1;
 		else if (args[i].equals("-target"))
 		    context = 2;
+		else if (args[i].equals("-opt"))
+		    context = 3;
 		else if (context == 1)
 		    {
 			outfile = args[i];
@@ -144,6 +190,19 @@ public class CLI
 			    target = DEFAULT; // Anything else is just default
 			context = 0;
 		    }
+		else if (context == 3)
+		    {
+			for (String name : args[i].split(","))
+			    {
+				boolean on = !name.startsWith("-");
+				if (!on)
+				    name = name.substring(1);
+				for (int j = 0; j < optnames.length; j++)
+				    if (name.equals("all") || name.equals(optnames[j]))
+					opts[j] = on;
+			    }
+			context = 0;
+		    }
 		else
 		    extras.addElement(args[i]);
 	    }